@@ -0,0 +1,82 @@
+package org.lwjgl.demo.opengl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.demo.util.Color4D;
+import org.lwjgl.demo.util.MeshBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Gear tessellation on the CPU: building the vertices, smoothing the inside cylinder, compressing and welding.
+ * Every benchmark frees the off-heap mesh it creates, so only the transient allocations remain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GearBenchmark {
+	@Param({ "10", "20", "100", "1000" })
+	public int teeth;
+
+	private Gear m_gear;
+	private MeshBuilder m_mesh;	// built once per trial for the smoothing and compression benchmarks
+
+	@Setup(Level.Trial)
+	public void setup() {
+		m_gear = new Gear(1.0, 4.0, 1.0, teeth, 0.7, new Color4D(0.8f, 0.1f, 0.0f, 1.0f));
+		m_mesh = m_gear.buildMesh();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		m_mesh.free();
+	}
+
+	// build including the smoothing of the inside cylinder, without welding
+	@Benchmark
+	public int build() {
+		MeshBuilder mesh = m_gear.buildMesh();
+		int count = mesh.getVertexCount();
+		mesh.free();
+		return count;
+	}
+
+	// build, compress and weld, as done by the worker threads of GearsModel
+	@Benchmark
+	public int tessellate() {
+		MeshBuilder mesh = m_gear.tessellate();
+		int count = mesh.getIndexCount();
+		mesh.free();
+		return count;
+	}
+
+	// quantizing the positions and packing the normals of the unwelded vertices
+	@Benchmark
+	public int compress() {
+		MeshBuilder mesh = m_mesh.compress();
+		int count = mesh.getVertexCount();
+		mesh.free();
+		return count;
+	}
+
+	// smoothing all vertices of a gear sharing a position, i.e. the worst case of smoothNormals
+	@Benchmark
+	public MeshBuilder smoothNormals() {
+		m_mesh.smoothNormals(0, m_mesh.getVertexCount());
+		return m_mesh;
+	}
+}
@@ -0,0 +1,74 @@
+package org.lwjgl.demo.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix4d;
+import org.joml.Matrix4x3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Culling randomly placed bounding spheres, about a tenth of them visible, serially and in parallel,
+ * compared with testing each sphere on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrustumCullerBenchmark {
+	@Param({ "1000", "100000" })
+	public int count;
+
+	private final FrustumCuller m_culler = new FrustumCuller(16);
+	private float[] m_spheres;	// x, y, z, radius
+
+	@Setup
+	public void setup() {
+		Matrix4d P = new Matrix4d().setFrustum(-1.0, 1.0, -1.0, 1.0, 5.0, 100.0);
+		Matrix4x3d V = new Matrix4x3d().translation(0.0, 0.0, -40.0).rotateX(Math.toRadians(70));
+		m_culler.setFrustum(P.mul(V, new Matrix4d()));
+
+		Random random = new Random(1);
+		m_spheres = new float[count*4];
+		for (int i = 0; i < count; i++) {
+			m_spheres[i*4 + 0] = random.nextFloat()*200 - 100;
+			m_spheres[i*4 + 1] = random.nextFloat()*200 - 100;
+			m_spheres[i*4 + 2] = random.nextFloat()*200 - 100;
+			m_spheres[i*4 + 3] = random.nextFloat()*2;
+			m_culler.add(m_spheres[i*4], m_spheres[i*4 + 1], m_spheres[i*4 + 2], m_spheres[i*4 + 3]);
+		}
+	}
+
+	@Benchmark
+	public int serial() {
+		m_culler.setParallel(false);
+		return m_culler.cull();
+	}
+
+	@Benchmark
+	public int parallel() {
+		m_culler.setParallel(true);
+		return m_culler.cull();
+	}
+
+	@Benchmark
+	public int single() {
+		int visible = 0;
+		for (int i = 0; i < count; i++) {
+			visible += m_culler.isVisible(m_spheres[i*4], m_spheres[i*4 + 1], m_spheres[i*4 + 2], m_spheres[i*4 + 3]) ? 1 : 0;
+		}
+		return visible;
+	}
+}
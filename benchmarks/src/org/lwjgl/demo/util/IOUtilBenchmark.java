@@ -0,0 +1,101 @@
+package org.lwjgl.demo.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the shader sources with IOUtil.ioResourceToByteBuffer and IOUtil.mapResource from the class path
+ * (jar of the demo) and from a file system path. The mapped variants release the resource again, so every
+ * call loads it, except for cached, which keeps a reference open like a second user would. Must not run in
+ * a directory containing the shaders, otherwise the class path lookup is answered by the file system.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IOUtilBenchmark {
+	@Param({ "shader1.vert", "shader1.frag" })
+	public String resource;
+
+	private Path m_file;	// copy of the resource in the file system
+
+	// reference held open during the cached benchmark only, so the other benchmarks load the resource
+	@State(Scope.Benchmark)
+	public static class Held {
+		private IOUtil.Resource m_resource;
+
+		@Setup
+		public void setup(IOUtilBenchmark benchmark) throws IOException {
+			m_resource = IOUtil.mapResource(benchmark.resource);
+		}
+
+		@TearDown
+		public void tearDown() {
+			m_resource.close();
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		m_file = Files.createTempFile("bench", resource);
+		try (InputStream in = IOUtil.class.getClassLoader().getResourceAsStream(resource)) {
+			Files.copy(in, m_file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(m_file);
+	}
+
+	@Benchmark
+	public ByteBuffer classpath() throws IOException {
+		return IOUtil.ioResourceToByteBuffer(resource, 4096);
+	}
+
+	@Benchmark
+	public ByteBuffer filesystem() throws IOException {
+		return IOUtil.ioResourceToByteBuffer(m_file.toString(), 4096);
+	}
+
+	@Benchmark
+	public int mappedClasspath() throws IOException {
+		try (IOUtil.Resource r = IOUtil.mapResource(resource)) {
+			return r.data().get(r.size() - 1);
+		}
+	}
+
+	@Benchmark
+	public int mappedFilesystem() throws IOException {
+		try (IOUtil.Resource r = IOUtil.mapResource(m_file.toString())) {
+			return r.data().get(r.size() - 1);
+		}
+	}
+
+	@Benchmark
+	public int cached(Held held) throws IOException {
+		try (IOUtil.Resource r = IOUtil.mapResource(resource)) {
+			return r.data().get(r.size() - 1);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix3d;
+import org.joml.Matrix4d;
+import org.joml.Matrix4x3d;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-draw matrix chain of OGLModel3D.updateObject: VM = V*M, its normal matrix and PVM = P*VM,
+ * with and without writing the std140 object block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatrixChainBenchmark {
+	private final Matrix4d P = new Matrix4d();
+	private final Matrix4d PVM = new Matrix4d();
+	private final Matrix4x3d V = new Matrix4x3d();
+	private final Matrix4x3d M = new Matrix4x3d();
+	private final Matrix4x3d VM = new Matrix4x3d();
+	private final Matrix3d m_vm = new Matrix3d();
+	private ByteBuffer m_block;
+	private double m_angle;
+
+	@Setup
+	public void setup() {
+		P.setFrustum(-1.0, 1.0, -1.0, 1.0, 5.0, 100.0);
+		V.translation(0.0, 0.0, -40.0).rotateX(Math.toRadians(70));
+		m_block = memAlloc(64 + 48 + 16);
+	}
+
+	@TearDown
+	public void tearDown() {
+		memFree(m_block);
+	}
+
+	@Benchmark
+	public Matrix4d matrices() {
+		M.translation(-3.0, -2.0, 0.0).rotateZ(m_angle += 0.01);
+		V.mul(M, VM).normal(m_vm);
+		return P.mul(VM, PVM);
+	}
+
+	@Benchmark
+	public ByteBuffer objectBlock() {
+		M.translation(-3.0, -2.0, 0.0).rotateZ(m_angle += 0.01);
+		V.mul(M, VM);
+		UniformBuffer.putMat4(m_block, 0, P.mul(VM, PVM));
+		UniformBuffer.putMat3(m_block, 64, VM.normal(m_vm));
+		UniformBuffer.putVec4(m_block, 112, 0.8f, 0.1f, 0.0f, 1.0f);
+		return m_block;
+	}
+}
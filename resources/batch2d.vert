@@ -0,0 +1,11 @@
+uniform mat4 u_P;	// orthographic projection, vertices are transformed into world space on the CPU
+
+layout(location = 0) in vec2 in_Position;	// vertex position
+layout(location = 2) in vec4 in_Color;		// vertex color, normalized bytes
+
+out vec4 v_Color;
+
+void main() {
+    v_Color = in_Color;
+    gl_Position = u_P*vec4(in_Position, 0.0, 1.0);
+}
@@ -0,0 +1,14 @@
+uniform sampler2D u_Accum;	// sum of weighted premultiplied colors and alphas
+uniform sampler2D u_Reveal;	// product of (1 - alpha) of all transparent fragments
+
+layout(location = 0) out vec4 out_Color;	// blended with (SRC_ALPHA, ONE_MINUS_SRC_ALPHA) over the opaque scene
+
+void main() {
+    ivec2 xy = ivec2(gl_FragCoord.xy);
+    float reveal = texelFetch(u_Reveal, xy, 0).r;
+    if (reveal == 1.0)
+        discard;	// no transparent fragments
+
+    vec4 accum = texelFetch(u_Accum, xy, 0);
+    out_Color = vec4(accum.rgb/clamp(accum.a, 1e-4, 5e4), 1.0 - reveal);
+}
@@ -0,0 +1,5 @@
+// full screen triangle generated from the vertex id, no vertex attributes needed
+void main() {
+    vec2 p = vec2((gl_VertexID << 1) & 2, gl_VertexID & 2);	// (0,0), (2,0), (0,2)
+    gl_Position = vec4(p*2.0 - 1.0, 0.0, 1.0);
+}
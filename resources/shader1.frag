@@ -1,13 +1,40 @@
-uniform vec4 u_COLOR;		// the same color for all fragments of a model
+#ifdef INSTANCED
+    in vec4 v_Color;		// per-instance color
+    #define COLOR v_Color
+#else
+    layout(std140) uniform Object {	// per-object data, the same for all fragments of a model
+        mat4 u_PVM;
+        mat3 u_VM;
+        vec4 u_COLOR;
+    };
+    #define COLOR u_COLOR
+#endif
+
+#ifdef VERTEX_COLOR
+    in vec4 v_VertexColor;	// per-vertex color, modulated by the object or instance color
+    #define SURFACE_COLOR (COLOR*v_VertexColor)
+#else
+    #define SURFACE_COLOR COLOR
+#endif
 
 in float v_Shade;			// shade of a fragment
 
-#if __VERSION__ < 330
-    out vec4 out_Color;		// resulting pixel color
+#ifdef OIT
+    // weighted blended order-independent transparency, see OITBuffer
+    layout(location = 0) out vec4 out_Accum;	// weighted premultiplied color and alpha, summed up
+    layout(location = 1) out float out_Reveal;	// alpha, multiplied up as product of (1 - alpha)
 #else
-    layout(location = 0) out vec4 out_Color;
+    layout(location = 0) out vec4 out_Color;	// resulting pixel color
 #endif
 
 void main() {
-    out_Color = vec4(u_COLOR.xyz*v_Shade, u_COLOR.w);
+#ifdef OIT
+    vec4 color = vec4(SURFACE_COLOR.xyz*v_Shade, SURFACE_COLOR.w);
+    // fragments closer to the camera and more opaque fragments get larger weights
+    float w = clamp(pow(min(1.0, color.a*10.0) + 0.01, 3.0)*1e8*pow(1.0 - gl_FragCoord.z*0.9, 3.0), 1e-2, 3e3);
+    out_Accum = vec4(color.rgb*color.a, color.a)*w;
+    out_Reveal = color.a;
+#else
+    out_Color = vec4(SURFACE_COLOR.xyz*v_Shade, SURFACE_COLOR.w);
+#endif
 }
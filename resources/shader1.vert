@@ -1,19 +1,47 @@
-uniform mat4 u_PVM;			// the same geometric transforms for all vertices of a model
-uniform mat3 u_VM;
-uniform vec3 u_LIGHT;
+layout(std140) uniform Camera {	// per-frame data shared by all programs
+    mat4 u_P;
+    mat4 u_V;
+    vec4 u_LIGHT;				// light direction in view space
+};
 
-#if __VERSION__ < 330
-    in vec3 in_Position;	// vertex position
-    in vec3 in_Normal;		// vertex normal
-#else
-    layout(location = 0) in vec3 in_Position;
-    layout(location = 1) in vec3 in_Normal;
+#ifndef INSTANCED
+layout(std140) uniform Object {	// per-object data, the same for all vertices of a model
+    mat4 u_PVM;
+    mat3 u_VM;
+    vec4 u_COLOR;
+};
+#endif
+
+layout(location = 0) in vec3 in_Position;	// vertex position
+layout(location = 1) in vec3 in_Normal;		// vertex normal
+#ifdef VERTEX_COLOR
+    layout(location = 2) in vec4 in_Color;			// per-vertex color, e.g. of baked static geometry
+#endif
+#ifdef INSTANCED
+    layout(location = 4) in vec4 in_InstanceColor;	// per-instance color
+    layout(location = 5) in mat4x3 in_Model;		// per-instance model transform
 #endif
 
 out float v_Shade;			// for each vertex, needed in fragment shader
+#ifdef VERTEX_COLOR
+    out vec4 v_VertexColor;
+#endif
+#ifdef INSTANCED
+    out vec4 v_Color;
+#endif
 
 void main() {
+#ifdef INSTANCED
+    mat4 VM = u_V*mat4(in_Model);	// rigid up to the uniform dequantization scale, so mat3(VM) is a valid normal matrix once normalized
+    vec3 normal = normalize(mat3(VM)*in_Normal);
+    v_Color = in_InstanceColor;
+    gl_Position = u_P*(VM*vec4(in_Position, 1.0));
+#else
     vec3 normal = normalize(u_VM*in_Normal);
-    v_Shade = max(dot(normal, u_LIGHT), 0.0);
     gl_Position = u_PVM*vec4(in_Position, 1.0);
+#endif
+    v_Shade = max(dot(normal, u_LIGHT.xyz), 0.0);
+#ifdef VERTEX_COLOR
+    v_VertexColor = in_Color;
+#endif
 }
@@ -1,27 +1,23 @@
 package org.lwjgl.demo.opengl;
 
 import static org.joml.Math.PI;
+import static org.joml.Math.lerp;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.glfw.GLFW.glfwSetWindowShouldClose;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL11C.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11C.GL_DEPTH_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11C.glClear;
-import static org.lwjgl.opengl.GL11C.glDrawArrays;
-import static org.lwjgl.opengl.GL20C.glUniform3fv;
-import static org.lwjgl.opengl.GL20C.glUniform4fv;
-import static org.lwjgl.opengl.GL20C.glUniformMatrix3fv;
-import static org.lwjgl.opengl.GL20C.glUniformMatrix4fv;
 
-import java.nio.FloatBuffer;
-
-import org.joml.Matrix3d;
 import org.joml.Vector3d;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.demo.util.Color4D;
 import org.lwjgl.demo.util.OGLApp;
 import org.lwjgl.demo.util.OGLModel3D;
+import org.lwjgl.demo.util.MeshBuilder;
 import org.lwjgl.demo.util.OGLObject;
+import org.lwjgl.demo.util.SceneNode;
+import org.lwjgl.demo.util.StaticBatch;
+import org.lwjgl.demo.util.VertexFormat;
 
 public class Cube3D extends OGLApp<CubeModel> {
 	public Cube3D(CubeModel model) {
@@ -32,10 +28,10 @@ public class Cube3D extends OGLApp<CubeModel> {
 				glfwSetWindowShouldClose(window, true); // We will detect this in the rendering loop
 			else if (action == GLFW_PRESS || action == GLFW_REPEAT) {
 				switch(key) {
-				case GLFW_KEY_LEFT: model.changeYangle(0.125); break;
-				case GLFW_KEY_RIGHT: model.changeYangle(-0.125); break;
-				case GLFW_KEY_UP: model.changeXangle(0.125); break;
-				case GLFW_KEY_DOWN: model.changeXangle(-0.125); break;
+				case GLFW_KEY_LEFT: post(() -> model.changeYangle(7.5)); break;
+				case GLFW_KEY_RIGHT: post(() -> model.changeYangle(-7.5)); break;
+				case GLFW_KEY_UP: post(() -> model.changeXangle(7.5)); break;
+				case GLFW_KEY_DOWN: post(() -> model.changeXangle(-7.5)); break;
 				}
 			}
 		};
@@ -49,101 +45,145 @@ public class Cube3D extends OGLApp<CubeModel> {
 class CubeModel extends OGLModel3D {
 	final static double deg2rad = PI/180;
 
-	private final Matrix3d m_vm = new Matrix3d();
 	private final Vector3d m_light  = new Vector3d();
-	private final FloatBuffer m_vec3f = BufferUtils.createFloatBuffer(3);
-	private final FloatBuffer m_mat3f = BufferUtils.createFloatBuffer(3*3);
-	private final FloatBuffer m_mat4f = BufferUtils.createFloatBuffer(4*4);
 
 	private Side m_side;
-    private double m_startTime = System.currentTimeMillis()/1000.0;
+	private StaticBatch m_inside;						// opaque inside faces baked into one mesh
+	private final SceneNode m_outside = new SceneNode();	// translucent outside faces
     private double m_distance = 10.0f;	// camera distance
-    private double m_dxAngle = 0;		// degrees
-    private double m_dyAngle = 0; 		// degrees
+    private double m_dxAngle = 0;		// degrees per second
+    private double m_dyAngle = 0; 		// degrees per second
     private double m_xAngle = 0;		// degrees
     private double m_yAngle = 0;		// degrees
+    private double m_prevXAngle = 0;	// degrees, x angle of the previous update
+    private double m_prevYAngle = 0;	// degrees, y angle of the previous update
     private double m_zAngle = 0;		// degrees
-    private long   m_count;				// fps
 
+    // simulated state read by render
+    private static final class State {
+        double m_xAngle, m_yAngle, m_prevXAngle, m_prevYAngle;
+    }
+    private final State[] m_snapshots = { new State(), new State() };
+    private State m_state = m_snapshots[0];	// snapshot read by render
+
+	// the baked inside faces have vertex colors, the translucent outside faces are blended order-independently
 	@Override
-	public void init(int width, int height) {
-		super.init(width, height);
-		m_side = new Side(new Color4D(0, 0, 0, 1));
-		glEnable(GL_BLEND);
-		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+	protected int[] getShaderVariants() {
+		return new int[] { 0, VERTEX_COLOR, OIT };
 	}
 
 	@Override
-	public void render() {
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-
-        // VIEW
-        V.translation(0.0, 0.0, -m_distance).rotateX(m_xAngle*deg2rad).rotateY(m_yAngle*deg2rad).rotateZ(m_zAngle*deg2rad); // V = T*Rx*Ry*Rz
+	public void init(int width, int height) {
+		super.init(width, height);
+		m_side = new Side(new Color4D(0, 0, 0, 1));
+		m_inside = new StaticBatch(6*6);
+		MeshBuilder side = Side.mesh();
 
-        // LIGHT
-        glUniform3fv(u_LIGHT, m_light.set(0.0, 0.0, 10.0).normalize().get(m_vec3f)); // V * m_light
+		// the face transforms are constant, the cube is rotated by the view transform;
+		// the opaque inside faces are baked, the translucent outside faces are blended order-independently
 
 		// front inside
 		M.rotationY(Math.PI).translate(0, 0, -1);
-		drawSide(m_side.setRGBA(1, 0, 0, 1));
+		m_inside.add(side, GL_QUADS, M, 1, 0, 0, 1);
 
 		// right inside
 		M.rotationY(-Math.PI/2).translate(0, 0, -1);
-		drawSide(m_side.setRGBA(1, 1, 0, 1));
+		m_inside.add(side, GL_QUADS, M, 1, 1, 0, 1);
 
 		// back inside
 		M.translation(0, 0, -1);
-		drawSide(m_side.setRGBA(0, 1, 1, 1));
+		m_inside.add(side, GL_QUADS, M, 0, 1, 1, 1);
 
 		// left inside
 		M.rotationY(Math.PI/2).translate(0, 0, -1);
-		drawSide(m_side.setRGBA(0, 0, 1, 1));
+		m_inside.add(side, GL_QUADS, M, 0, 0, 1, 1);
 
 		// bottom inside
 		M.rotationX(-Math.PI/2).translate(0, 0, -1);
-		drawSide(m_side.setRGBA(0, 1, 0, 1));
+		m_inside.add(side, GL_QUADS, M, 0, 1, 0, 1);
 
 		// top inside
 		M.rotationX(Math.PI/2).translate(0, 0, -1);
-		drawSide(m_side.setRGBA(1, 0, 1, 1));
+		m_inside.add(side, GL_QUADS, M, 1, 0, 1, 1);
+		side.free();
+		m_inside.bake();
 
         // front
         M.translation(0, 0, 1); // translation = identity.translate
-		drawSide(m_side.setRGBA(1, 0, 0, 0.75f));
+		addOutsideFace(1, 0, 0);
 
 		// right
 		M.rotationY(Math.PI/2).translate(0, 0, 1); // M = Ry*T
-	    drawSide(m_side.setRGBA(1, 1, 0, 0.75f));
+	    addOutsideFace(1, 1, 0);
 
 		// back
 		M.rotationY(Math.PI).translate(0, 0, 1);
-        drawSide(m_side.setRGBA(0, 1, 1, 0.75f));
+        addOutsideFace(0, 1, 1);
 
 		// left
 	    M.rotationY(-Math.PI/2).translate(0, 0, 1);
-		drawSide(m_side.setRGBA(0, 0, 1, 0.75f));
+		addOutsideFace(0, 0, 1);
 
 		// bottom
 		M.rotationX(Math.PI/2).translate(0, 0, 1);
-	    drawSide(m_side.setRGBA(0, 1, 0, 0.75f));
+	    addOutsideFace(0, 1, 0);
 
 		// top
 	    M.rotationX(-Math.PI/2).translate(0, 0, 1);
-		drawSide(m_side.setRGBA(1, 0, 1, 0.75f));
+		addOutsideFace(1, 0, 1);
 
-	    // fps
-        m_count++;
+		setOrderIndependentTransparency(true); // falls back to sorting the outside faces without OIT support
+	}
 
-        double theTime = System.currentTimeMillis()/1000.0;
-        if (theTime >= m_startTime + 1.0) {
-            System.out.format("%d fps\n", m_count);
-            m_startTime = theTime;
-            m_count = 0;
-        }
-        
+	@Override
+	public void update(double dt) {
         // animation
-        m_xAngle -= m_dxAngle;
-        m_yAngle -= m_dyAngle;
+        m_prevXAngle = m_xAngle;
+        m_prevYAngle = m_yAngle;
+        m_xAngle -= m_dxAngle*dt;
+        m_yAngle -= m_dyAngle*dt;
+	}
+
+	@Override
+	public void publish(int slot) {
+        State state = m_snapshots[slot];
+        state.m_xAngle = m_xAngle;
+        state.m_yAngle = m_yAngle;
+        state.m_prevXAngle = m_prevXAngle;
+        state.m_prevYAngle = m_prevYAngle;
+	}
+
+	@Override
+	public void present(int slot) {
+        m_state = m_snapshots[slot];
+	}
+
+	@Override
+	public void render(double alpha) {
+        final double xAngle = lerp(m_state.m_prevXAngle, m_state.m_xAngle, alpha);
+        final double yAngle = lerp(m_state.m_prevYAngle, m_state.m_yAngle, alpha);
+
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+
+        // VIEW
+        V.translation(0.0, 0.0, -m_distance).rotateX(xAngle*deg2rad).rotateY(yAngle*deg2rad).rotateZ(m_zAngle*deg2rad); // V = T*Rx*Ry*Rz
+
+        // LIGHT
+        updateCamera(m_light.set(0.0, 0.0, 10.0).normalize()); // V * m_light
+
+        M.identity(); // the baked faces are already in model space
+        submit(m_inside, GL_TRIANGLES, false); // all inside faces in one draw call
+        submit(m_outside); // the face matrices are only recomputed if the camera has moved
+        flush();
+	}
+
+	// adds an outside face with the current M
+	private void addOutsideFace(float r, float g, float b) {
+		SceneNode face = new SceneNode(m_side, GL_QUADS);
+		face.setLocal(M);
+		face.setColor(r, g, b, 0.75f);
+		face.setTransparent(true);
+		m_outside.addChild(face);
 	}
 	
 	public void changeXangle(double delta) {
@@ -154,62 +194,27 @@ class CubeModel extends OGLModel3D {
 		m_dyAngle += delta;
 	}
 	
-	private void drawSide(Side side) {
-		// set geometric transformation matrices for all vertices of this model
-        glUniformMatrix3fv(u_VM, false, V.mul(M, VM).normal(m_vm).get(m_mat3f));
-        glUniformMatrix4fv(u_PVM, false, P.mul(VM, PVM).get(m_mat4f)); // get: stores in and returns m_mat4f
-        
-        // set color for all vertices of this model
-        glUniform4fv(u_COLOR, side.getColor());
-
-        // draw a quad
-        side.setupPositions(m_POSITIONS);	
-        side.setupNormals(m_NORMALS);
-        glDrawArrays(GL_QUADS, 0, side.getVertexCount());
-    }
-
     private static class Side extends OGLObject {
-    	final static int CoordinatesPerVertex = 3;
-    	
 		protected Side(Color4D color) {
 			super(color);
-        	
+			upload(mesh()); // bind vertex positions and normals
+		}
+
+		// the quad with interleaved vertex positions and normals, shared by the nodes and the baked faces
+		static MeshBuilder mesh() {
 			final int nVertices = 4;
-			final int nCoordinates = nVertices*CoordinatesPerVertex;
-			
-			// allocate vertex positions and normals
-            allocatePositionBuffer(nCoordinates);
-            allocateNormalBuffer(nCoordinates);
-            
+			MeshBuilder mesh = new MeshBuilder(VertexFormat.POSITION_NORMAL, nVertices);
+
             // CCW order needed in GL_QUADS
-            addVertex(-1, +1, 0);
-            addVertex(-1, -1, 0);
-            addVertex(+1, -1, 0);
-            addVertex(+1, +1, 0);
-            
-            // bin vertex positions and normals
-            bindPositionBuffer();           
-            bindNormalBuffer();           
+            addVertex(mesh, -1, +1, 0);
+            addVertex(mesh, -1, -1, 0);
+            addVertex(mesh, +1, -1, 0);
+            addVertex(mesh, +1, +1, 0);
+            return mesh;
 		}
     	
-        private void addVertex(float x, float y, float z) {
-            m_positions.put(m_vertexCount*CoordinatesPerVertex + 0, x);
-            m_positions.put(m_vertexCount*CoordinatesPerVertex + 1, y);
-            m_positions.put(m_vertexCount*CoordinatesPerVertex + 2, z);
-
-            m_normals.put(m_vertexCount*CoordinatesPerVertex + 0, 0);
-            m_normals.put(m_vertexCount*CoordinatesPerVertex + 1, 0);
-            m_normals.put(m_vertexCount*CoordinatesPerVertex + 2, 1);
-
-            m_vertexCount++;
-        }
-        
-        public Side setRGBA(float r, float g, float b, float a) {
-        	m_color.put(0, r);
-        	m_color.put(1, g);
-        	m_color.put(2, b);
-        	m_color.put(3, a);
-        	return this;
+        private static void addVertex(MeshBuilder mesh, float x, float y, float z) {
+            mesh.position(x, y, z).normal(0, 0, 1).endVertex();
         }
     }
 
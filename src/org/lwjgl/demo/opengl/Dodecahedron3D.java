@@ -22,10 +22,10 @@ public class Dodecahedron3D extends OGLApp<DodecahedronModel> {
                 glfwSetWindowShouldClose(window, true); // We will detect this in the rendering loop
             else if (action == GLFW_PRESS || action == GLFW_REPEAT) {
                 switch(key) {
-                    case GLFW_KEY_LEFT: model.changeYangle(0.125); break;
-                    case GLFW_KEY_RIGHT: model.changeYangle(-0.125); break;
-                    case GLFW_KEY_UP: model.changeXangle(0.125); break;
-                    case GLFW_KEY_DOWN: model.changeXangle(-0.125); break;
+                    case GLFW_KEY_LEFT: post(() -> model.changeYangle(7.5)); break;
+                    case GLFW_KEY_RIGHT: post(() -> model.changeYangle(-7.5)); break;
+                    case GLFW_KEY_UP: post(() -> model.changeXangle(7.5)); break;
+                    case GLFW_KEY_DOWN: post(() -> model.changeXangle(-7.5)); break;
                 }
             }
         };
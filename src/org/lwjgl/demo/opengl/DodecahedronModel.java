@@ -1,14 +1,12 @@
 package org.lwjgl.demo.opengl;
 
-import org.joml.Matrix3d;
 import org.joml.Vector3d;
-import org.lwjgl.BufferUtils;
-import org.lwjgl.demo.util.Color4D;
+import org.lwjgl.demo.util.MeshBuilder;
 import org.lwjgl.demo.util.OGLModel3D;
-
-import java.nio.FloatBuffer;
+import org.lwjgl.demo.util.StaticBatch;
 
 import static org.joml.Math.PI;
+import static org.joml.Math.lerp;
 import static org.lwjgl.opengl.GL11.GL_BLEND;
 import static org.lwjgl.opengl.GL11.GL_ONE_MINUS_SRC_ALPHA;
 import static org.lwjgl.opengl.GL11.GL_POLYGON;
@@ -17,121 +15,134 @@ import static org.lwjgl.opengl.GL11.glBlendFunc;
 import static org.lwjgl.opengl.GL11.glEnable;
 import static org.lwjgl.opengl.GL11C.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11C.GL_DEPTH_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11C.GL_TRIANGLES;
 import static org.lwjgl.opengl.GL11C.glClear;
-import static org.lwjgl.opengl.GL11C.glDrawArrays;
-import static org.lwjgl.opengl.GL20C.glUniform3fv;
-import static org.lwjgl.opengl.GL20C.glUniform4fv;
-import static org.lwjgl.opengl.GL20C.glUniformMatrix3fv;
-import static org.lwjgl.opengl.GL20C.glUniformMatrix4fv;
 
 public class DodecahedronModel extends OGLModel3D {
     final static double deg2rad = PI/180;
 
-    private final Matrix3d m_vm = new Matrix3d();
     private final Vector3d m_light  = new Vector3d();
-    private final FloatBuffer m_vec3f = BufferUtils.createFloatBuffer(3);
-    private final FloatBuffer m_mat3f = BufferUtils.createFloatBuffer(3*3);
-    private final FloatBuffer m_mat4f = BufferUtils.createFloatBuffer(4*4);
 
-    private Side m_side;
-    private double m_startTime = System.currentTimeMillis()/1000.0;
+    private StaticBatch m_faces;		// all faces baked into one mesh
     private double m_distance = 10.0f;	// camera distance
-    private double m_dxAngle = 0;		// degrees
-    private double m_dyAngle = 0; 		// degrees
+    private double m_dxAngle = 0;		// degrees per second
+    private double m_dyAngle = 0; 		// degrees per second
     private double m_xAngle = 0;		// degrees
     private double m_yAngle = 0;		// degrees
+    private double m_prevXAngle = 0;	// degrees, x angle of the previous update
+    private double m_prevYAngle = 0;	// degrees, y angle of the previous update
     private double m_zAngle = 0;		// degrees
-    private long   m_count;				// fps
 
-    @Override
-    public void init(int width, int height) {
-        super.init(width, height);
-        m_side = new Side(new Color4D(0, 0, 0, 1));
-        glEnable(GL_BLEND);
-        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+    // simulated state read by render
+    private static final class State {
+        double m_xAngle, m_yAngle, m_prevXAngle, m_prevYAngle;
     }
+    private final State[] m_snapshots = { new State(), new State() };
+    private State m_state = m_snapshots[0];	// snapshot read by render
 
+    // the baked faces have vertex colors
     @Override
-    public void render() {
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+    protected int[] getShaderVariants() {
+        return new int[] { 0, VERTEX_COLOR };
+    }
 
-        // VIEW
-        V.translation(0.0, 0.0, -m_distance).rotateX(m_xAngle*deg2rad).rotateY(m_yAngle*deg2rad).rotateZ(m_zAngle*deg2rad); // V = T*Rx*Ry*Rz
+    @Override
+    public void init(int width, int height) {
+        super.init(width, height);
+        m_faces = new StaticBatch(12*9);
+        MeshBuilder side = Side.mesh();
 
-        // LIGHT
-        glUniform3fv(u_LIGHT, m_light.set(0.0, 0.0, 10.0).normalize().get(m_vec3f)); // V * m_light
+        // the face transforms are constant, so the faces are baked; the dodecahedron is rotated by the view transform
 
         // front
         M.translation(0, 0, 1); // translation = identity.translate
-        drawSide(m_side.setRGBA(1, 0, 0, 1));
+        m_faces.add(side, GL_POLYGON, M, 1, 0, 0, 1);
 
         M.rotationX(180*deg2rad).translate(0, 0, 1);
-        drawSide(m_side.setRGBA(1, 0, 0, 1));
+        m_faces.add(side, GL_POLYGON, M, 1, 0, 0, 1);
 
         M.rotationX(63.3*deg2rad).translate(0, 0, 1).rotateZ(180*deg2rad);
-        drawSide(m_side.setRGBA(0, 1, 0, 1));
+        m_faces.add(side, GL_POLYGON, M, 0, 1, 0, 1);
 
         M.rotationX(-(180-63.3)*deg2rad).translate(0, 0, 1).rotateZ(180*deg2rad);
-        drawSide(m_side.setRGBA(0, 1, 0, 1));
+        m_faces.add(side, GL_POLYGON, M, 0, 1, 0, 1);
 
         M.rotationX(-58.2*deg2rad).rotateY(-31.65*deg2rad).translate(0, 0, 1).rotateZ(90*deg2rad);
-        drawSide(m_side.setRGBA(0, 0, 1, 1));
+        m_faces.add(side, GL_POLYGON, M, 0, 0, 1, 1);
 
         M.rotationX(-(180+58.2)*deg2rad).rotateY(31.65*deg2rad).translate(0, 0, 1).rotateZ(-90*deg2rad);
-        drawSide(m_side.setRGBA(0, 0, 1, 1));
+        m_faces.add(side, GL_POLYGON, M, 0, 0, 1, 1);
 
         M.rotationX(-58.2*deg2rad).rotateY(31.65*deg2rad).translate(0, 0, 1).rotateZ(-90*deg2rad);
-        drawSide(m_side.setRGBA(0, 1, 1, 1));
+        m_faces.add(side, GL_POLYGON, M, 0, 1, 1, 1);
 
         M.rotationX(-(180+58.2)*deg2rad).rotateY(-31.65*deg2rad).translate(0, 0, 1).rotateZ(90*deg2rad);
-        drawSide(m_side.setRGBA(0, 1, 1, 1));
+        m_faces.add(side, GL_POLYGON, M, 0, 1, 1, 1);
 
         M.rotationX(31.65*deg2rad).rotateY(58.2*deg2rad).translate(0, 0, 1).rotateZ(18*deg2rad);
-        drawSide(m_side.setRGBA(1, 1, 0, 1));
+        m_faces.add(side, GL_POLYGON, M, 1, 1, 0, 1);
 
         M.rotationX(31.65*deg2rad).rotateY((180+58.2)*deg2rad).translate(0, 0, 1).rotateZ(18*deg2rad);
-        drawSide(m_side.setRGBA(1, 1, 0, 1));
+        m_faces.add(side, GL_POLYGON, M, 1, 1, 0, 1);
 
         M.rotationX((180+31.65)*deg2rad).rotateY(58.2*deg2rad).translate(0, 0, 1).rotateZ(18*deg2rad);
-        drawSide(m_side.setRGBA(1, 0, 1, 1));
+        m_faces.add(side, GL_POLYGON, M, 1, 0, 1, 1);
 
         M.rotationX((180+31.65)*deg2rad).rotateY((180+58.2)*deg2rad).translate(0, 0, 1).rotateZ(18*deg2rad);
-        drawSide(m_side.setRGBA(1, 0, 1, 1));
+        m_faces.add(side, GL_POLYGON, M, 1, 0, 1, 1);
+        side.free();
+        m_faces.bake();
 
-        // fps
-        m_count++;
-
-        double theTime = System.currentTimeMillis()/1000.0;
-        if (theTime >= m_startTime + 1.0) {
-            System.out.format("%d fps\n", m_count);
-            m_startTime = theTime;
-            m_count = 0;
-        }
+        glEnable(GL_BLEND);
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+    }
 
+    @Override
+    public void update(double dt) {
         // animation
-        m_xAngle -= m_dxAngle;
-        m_yAngle -= m_dyAngle;
+        m_prevXAngle = m_xAngle;
+        m_prevYAngle = m_yAngle;
+        m_xAngle -= m_dxAngle*dt;
+        m_yAngle -= m_dyAngle*dt;
     }
 
-    public void changeXangle(double delta) {
-        m_dxAngle += delta;
+    @Override
+    public void publish(int slot) {
+        State state = m_snapshots[slot];
+        state.m_xAngle = m_xAngle;
+        state.m_yAngle = m_yAngle;
+        state.m_prevXAngle = m_prevXAngle;
+        state.m_prevYAngle = m_prevYAngle;
     }
 
-    public void changeYangle(double delta) {
-        m_dyAngle += delta;
+    @Override
+    public void present(int slot) {
+        m_state = m_snapshots[slot];
     }
 
-    private void drawSide(Side side) {
-        // set geometric transformation matrices for all vertices of this model
-        glUniformMatrix3fv(u_VM, false, V.mul(M, VM).normal(m_vm).get(m_mat3f));
-        glUniformMatrix4fv(u_PVM, false, P.mul(VM, PVM).get(m_mat4f)); // get: stores in and returns m_mat4f
+    @Override
+    public void render(double alpha) {
+        final double xAngle = lerp(m_state.m_prevXAngle, m_state.m_xAngle, alpha);
+        final double yAngle = lerp(m_state.m_prevYAngle, m_state.m_yAngle, alpha);
 
-        // set color for all vertices of this model
-        glUniform4fv(u_COLOR, side.getColor());
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
 
-        // draw a quad
-        side.setupPositions(m_POSITIONS);
-        side.setupNormals(m_NORMALS);
-        glDrawArrays(GL_POLYGON, 0, side.getVertexCount());
+        // VIEW
+        V.translation(0.0, 0.0, -m_distance).rotateX(xAngle*deg2rad).rotateY(yAngle*deg2rad).rotateZ(m_zAngle*deg2rad); // V = T*Rx*Ry*Rz
+
+        // LIGHT
+        updateCamera(m_light.set(0.0, 0.0, 10.0).normalize()); // V * m_light
+
+        M.identity(); // the baked faces are already in model space
+        submit(m_faces, GL_TRIANGLES, false); // all faces in one draw call
+        flush();
+    }
+
+    public void changeXangle(double delta) {
+        m_dxAngle += delta;
+    }
+
+    public void changeYangle(double delta) {
+        m_dyAngle += delta;
     }
 }
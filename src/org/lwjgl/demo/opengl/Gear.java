@@ -0,0 +1,294 @@
+package org.lwjgl.demo.opengl;
+
+import static org.joml.Math.PI;
+import static org.joml.Math.cos;
+import static org.joml.Math.sin;
+import static org.joml.Math.sqrt;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lwjgl.demo.util.Color4D;
+import org.lwjgl.demo.util.MeshBuilder;
+import org.lwjgl.demo.util.OGLObject;
+import org.lwjgl.demo.util.VertexFormat;
+
+public class Gear extends OGLObject {
+    private final double m_innerRadius, m_outerRadius, m_width, m_toothDepth;
+    private final int m_teeth;
+    private final int m_segments;		// > 0: simplified toothless ring with the given number of segments
+    private double m_normalX, m_normalY, m_normalZ;
+    private final double[] m_quads = new double[4*3];
+    private int m_quadCount;
+    
+    public Gear(double innerRadius, double outerRadius, double width, int teeth, double toothDepth, Color4D color) {
+        this(innerRadius, outerRadius, width, teeth, toothDepth, 0, color);
+    }
+
+    private Gear(double innerRadius, double outerRadius, double width, int teeth, double toothDepth, int segments, Color4D color) {
+    	super(color);
+
+        m_innerRadius = innerRadius;
+        m_outerRadius = outerRadius;
+        m_width = width;
+        m_teeth = teeth;
+        m_toothDepth = toothDepth;
+        m_segments = segments;
+    }
+
+    public int getTeeth() {
+        return m_teeth;
+    }
+
+    /**
+     * Returns a coarser level of detail of this gear: a ring without teeth at the pitch radius,
+     * with the given number of segments. Once the teeth cover only a few pixels, the ring looks the same
+     * with a fraction of the triangles (8 per segment instead of 22 per tooth).
+     */
+    public Gear simplified(int segments) {
+        Color4D color = new Color4D(m_color.get(0), m_color.get(1), m_color.get(2), m_color.get(3));
+        return new Gear(m_innerRadius, m_outerRadius, m_width, m_teeth, m_toothDepth, segments, color);
+    }
+
+    // builds the mesh on the CPU without any OpenGL calls, hence it can run on any thread;
+    // the returned mesh has to be passed to upload on the thread owning the OpenGL context
+    public MeshBuilder tessellate() {
+        MeshBuilder built = buildMesh();
+        MeshBuilder mesh = built.compress(); // 12 instead of 24 bytes per vertex
+        built.free();
+        mesh.weld(); // share vertices with the same position and normal
+        return mesh;
+    }
+
+    // builds the smoothed but not yet welded mesh
+    MeshBuilder buildMesh() {
+        if (m_segments > 0) {
+            allocateVertexBuffer(VertexFormat.POSITION_NORMAL, 24*m_segments); // 4 quads per segment
+            buildRing(m_innerRadius, m_outerRadius, m_width, m_segments);
+        } else {
+            allocateVertexBuffer(VertexFormat.POSITION_NORMAL, vertexCount(m_teeth)); // allocate interleaved vertex positions and normals
+            build(m_innerRadius, m_outerRadius, m_width, m_teeth, m_toothDepth);
+        }
+
+        MeshBuilder mesh = m_vertices;
+        m_vertices = null;
+        return mesh;
+    }
+
+    /**
+     * cos and sin of all angles used by build for a given number of teeth: build only needs the multiples
+     * j*da of the quarter tooth angle da = 2*PI/teeth/4, for j = 0..4*teeth. The tables are computed once
+     * per tooth count and shared by all gears with the same number of teeth.
+     */
+    static final class AngleTable {
+        private static final Map<Integer, AngleTable> s_tables = new ConcurrentHashMap<>();
+
+        final double[] m_cos, m_sin;
+
+        private AngleTable(int teeth) {
+            final int n = 4*teeth + 1;
+            final double da = 2.0*PI/teeth/4.0;
+
+            m_cos = new double[n];
+            m_sin = new double[n];
+            for (int j = 0; j < n; j++) {
+                m_cos[j] = cos(j*da);
+                m_sin[j] = sin(j*da);
+            }
+        }
+
+        static AngleTable get(int teeth) {
+            return s_tables.computeIfAbsent(teeth, AngleTable::new);
+        }
+    }
+
+    // exact number of vertices emitted by build: 6 per quad, 11 quads per tooth
+    private static int vertexCount(int teeth) {
+        return 66*teeth;
+    }
+
+    private void build(double innerRadius, double outerRadius, double width, int teeth, double toothDepth) {
+        double r0 = innerRadius;
+        double r1 = outerRadius - toothDepth/2.0;
+        double r2 = outerRadius + toothDepth/2.0;
+        final AngleTable table = AngleTable.get(teeth);
+        final double[] cs = table.m_cos, sn = table.m_sin; // cs[j] = cos(j*da), sn[j] = sin(j*da)
+
+        normal3f(0.0, 0.0, 1.0);
+
+        /* draw front face */
+        m_quadCount = 0;
+        for (int i = 0; i <= teeth; i++) {
+            int j = 4*i; // angle = i*2*PI/teeth
+            vertex3f(r0*cs[j], r0*sn[j], width*0.5);
+            vertex3f(r1*cs[j], r1*sn[j], width*0.5);
+            if (i < teeth) {
+                vertex3f(r0*cs[j], r0*sn[j], width*0.5);
+                vertex3f(r1*cs[j + 3], r1*sn[j + 3], width*0.5);
+            }
+        }
+
+        /* draw front sides of teeth */
+        for (int i = 0; i < teeth; i++) {
+            int j = 4*i; // angle = i*2*PI/teeth
+
+            m_quadCount = 0;
+
+            vertex3f(r1*cs[j], r1*sn[j], width*0.5);
+            vertex3f(r2*cs[j + 1], r2*sn[j + 1], width*0.5);
+            vertex3f(r1*cs[j + 3], r1*sn[j + 3], width*0.5);
+            vertex3f(r2*cs[j + 2], r2*sn[j + 2], width*0.5);
+        }
+
+        normal3f(0.0, 0.0, -1.0);
+
+        /* draw back face */
+        m_quadCount = 0;
+        for (int i = 0; i <= teeth; i++) {
+            int j = 4*i; // angle = i*2*PI/teeth
+            
+            vertex3f(r1*cs[j], r1*sn[j], -width*0.5);
+            vertex3f(r0*cs[j], r0*sn[j], -width*0.5);
+            if (i < teeth) {
+                vertex3f(r1*cs[j + 3], r1*sn[j + 3], -width*0.5);
+                vertex3f(r0*cs[j], r0*sn[j], -width*0.5);
+            }
+        }
+
+        /* draw back sides of teeth */
+        for (int i = 0; i < teeth; i++) {
+            int j = 4*i; // angle = i*2*PI/teeth
+
+            m_quadCount = 0;
+
+            vertex3f(r1*cs[j + 3], r1*sn[j + 3], -width*0.5);
+            vertex3f(r2*cs[j + 2], r2*sn[j + 2], -width*0.5);
+            vertex3f(r1*cs[j], r1*sn[j], -width*0.5);
+            vertex3f(r2*cs[j + 1], r2*sn[j + 1], -width*0.5);
+        }
+
+        /* draw outward faces of teeth */
+        m_quadCount = 0;
+        for (int i = 0; i < teeth; i++) {
+            int j = 4*i; // angle = i*2*PI/teeth
+
+            vertex3f(r1*cs[j], r1*sn[j], width*0.5);
+            vertex3f(r1*cs[j], r1*sn[j], -width*0.5);
+            double u = r2*cs[j + 1] - r1*cs[j];
+            double v = r2*sn[j + 1] - r1*sn[j];
+            double len = sqrt(u*u + v*v);
+            u /= len;
+            v /= len;
+            normal3f(v, -u, 0.0);
+            vertex3f(r2*cs[j + 1], r2*sn[j + 1], width*0.5);
+            vertex3f(r2*cs[j + 1], r2*sn[j + 1], -width*0.5);
+
+            normal3f(cs[j], sn[j], 0.0);
+            vertex3f(r2*cs[j + 2], r2*sn[j + 2], width*0.5);
+            vertex3f(r2*cs[j + 2], r2*sn[j + 2], -width*0.5);
+
+            u = r1*cs[j + 3] - r2*cs[j + 2];
+            v = r1*sn[j + 3] - r2*sn[j + 2];
+            normal3f(v, -u, 0.0);
+            vertex3f(r1*cs[j + 3], r1*sn[j + 3], width*0.5);
+            vertex3f(r1*cs[j + 3], r1*sn[j + 3], -width*0.5);
+
+            normal3f(cs[j], sn[j], 0.0);
+        }
+
+        vertex3f(r1*cs[0], r1*sn[0], width*0.5);
+        vertex3f(r1*cs[0], r1*sn[0], -width*0.5);
+
+        /* draw inside radius cylinder */
+        m_quadCount = 0;
+        for (int i = 0; i <= teeth; i++) {
+            int j = 4*(i == teeth ? 0 : i); // Map 2*PI to 0 to get an exact hash below
+            
+            normal3f(-cs[j], -sn[j], 0.0);
+            vertex3f(r0*cs[j], r0*sn[j], -width*0.5);
+            vertex3f(r0*cs[j], r0*sn[j], width*0.5);
+        }
+
+        /* Emulate glShadeModel(GL_SMOOTH) for inside radius cylinder */
+        m_vertices.smoothNormals(m_vertices.getVertexCount() - teeth*6, teeth*6);
+   }
+
+    // the same faces as build without teeth: front and back annulus, outer and inner cylinder
+    private void buildRing(double innerRadius, double outerRadius, double width, int segments) {
+        double r0 = innerRadius;
+        double r1 = outerRadius;
+        final AngleTable table = AngleTable.get(segments);
+        final double[] cs = table.m_cos, sn = table.m_sin; // cs[4*i] = cos(i*2*PI/segments)
+
+        /* draw front face */
+        normal3f(0.0, 0.0, 1.0);
+        m_quadCount = 0;
+        for (int i = 0; i <= segments; i++) {
+            int j = 4*(i == segments ? 0 : i); // Map 2*PI to 0 to get an exact hash when welding
+            vertex3f(r0*cs[j], r0*sn[j], width*0.5);
+            vertex3f(r1*cs[j], r1*sn[j], width*0.5);
+        }
+
+        /* draw back face */
+        normal3f(0.0, 0.0, -1.0);
+        m_quadCount = 0;
+        for (int i = 0; i <= segments; i++) {
+            int j = 4*(i == segments ? 0 : i);
+            vertex3f(r1*cs[j], r1*sn[j], -width*0.5);
+            vertex3f(r0*cs[j], r0*sn[j], -width*0.5);
+        }
+
+        /* draw outer cylinder */
+        m_quadCount = 0;
+        for (int i = 0; i <= segments; i++) {
+            int j = 4*(i == segments ? 0 : i);
+            normal3f(cs[j], sn[j], 0.0);
+            vertex3f(r1*cs[j], r1*sn[j], width*0.5);
+            vertex3f(r1*cs[j], r1*sn[j], -width*0.5);
+        }
+        m_vertices.smoothNormals(m_vertices.getVertexCount() - segments*6, segments*6);
+
+        /* draw inside radius cylinder */
+        m_quadCount = 0;
+        for (int i = 0; i <= segments; i++) {
+            int j = 4*(i == segments ? 0 : i);
+            normal3f(-cs[j], -sn[j], 0.0);
+            vertex3f(r0*cs[j], r0*sn[j], -width*0.5);
+            vertex3f(r0*cs[j], r0*sn[j], width*0.5);
+        }
+        m_vertices.smoothNormals(m_vertices.getVertexCount() - segments*6, segments*6);
+    }
+
+    private void normal3f(double x, double y, double z) {
+        m_normalX = x;
+        m_normalY = y;
+        m_normalZ = z;
+    }
+
+    private void vertex3f(double x, double y, double z) {
+        m_quads[m_quadCount*3 + 0] = x;
+        m_quads[m_quadCount*3 + 1] = y;
+        m_quads[m_quadCount*3 + 2] = z;
+
+        if (++m_quadCount == 4) {
+            addVertex(m_quads[0], m_quads[1], m_quads[2]);
+            addVertex(m_quads[3], m_quads[4], m_quads[5]);
+            addVertex(m_quads[6], m_quads[7], m_quads[8]);
+
+            addVertex(m_quads[6], m_quads[7], m_quads[8]);
+            addVertex(m_quads[3], m_quads[4], m_quads[5]);
+            addVertex(m_quads[9], m_quads[10], m_quads[11]);
+
+            System.arraycopy(m_quads, 2*3, m_quads, 0, 2*3);
+            m_quadCount = 2;
+        }
+    }
+
+    private void addVertex(double x, double y, double z) {
+        m_vertices
+            .position((float)x, (float)y, (float)z)
+            .normal((float)m_normalX, (float)m_normalY, (float)m_normalZ)
+            .endVertex();
+    }
+
+}
@@ -1,15 +1,9 @@
 package org.lwjgl.demo.opengl;
 
+import static org.joml.Math.lerp;
+import static org.joml.Math.toRadians;
 import static org.lwjgl.glfw.GLFW.*;
-import static org.lwjgl.glfw.GLFW.glfwGetTime;
 import static org.lwjgl.glfw.GLFW.glfwSetWindowShouldClose;
-import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL11.glBegin;
-import static org.lwjgl.opengl.GL11.glColor3f;
-import static org.lwjgl.opengl.GL11.glEnd;
-import static org.lwjgl.opengl.GL11.glLoadIdentity;
-import static org.lwjgl.opengl.GL11.glRotatef;
-import static org.lwjgl.opengl.GL11.glVertex3f;
 
 import org.lwjgl.demo.util.Color4D;
 import org.lwjgl.demo.util.OGLApp;
@@ -23,8 +17,8 @@ public class Triangle2D extends OGLApp<TriangleModel> {
 		m_keyCallback = (window, key, scancode, action, mods) -> {
 			if ( key == GLFW_KEY_ESCAPE && action == GLFW_RELEASE )
 				glfwSetWindowShouldClose(window, true); // We will detect this in the rendering loop
-			if (key == GLFW_KEY_RIGHT && action == GLFW_PRESS) model.changeSpeed(1.0);
-			if (key == GLFW_KEY_LEFT && action == GLFW_PRESS) model.changeSpeed(-1.0);;
+			if (key == GLFW_KEY_RIGHT && action == GLFW_PRESS) post(() -> model.changeSpeed(1.0));
+			if (key == GLFW_KEY_LEFT && action == GLFW_PRESS) post(() -> model.changeSpeed(-1.0));;
 		};
 	}
 	
@@ -39,33 +33,52 @@ class TriangleModel extends OGLModel2D {
 	final static float h = s2*(float)Math.sqrt(3); 	// triangle height
 
 	private float m_speed = 2.0f;
+	private double m_angle;			// degrees
+	private double m_prevAngle;		// degrees, angle of the previous update
+
+	// simulated state read by render
+	private static final class State {
+		double m_angle, m_prevAngle;
+	}
+	private final State[] m_snapshots = { new State(), new State() };
+	private State m_state = m_snapshots[0];	// snapshot read by render
 
 	@Override
-	public void render() {
-        // legacy style 2D rendering (compatibility profile)
-        
-        // manipulate model-view matrix
-        glLoadIdentity();
-        glRotatef((float) glfwGetTime()*25f*m_speed, 0f, 0f, 1f);
+	public void update(double dt) {
+		m_prevAngle = m_angle;
+		m_angle += 25*m_speed*dt;
+	}
+
+	@Override
+	public void publish(int slot) {
+		State state = m_snapshots[slot];
+		state.m_angle = m_angle;
+		state.m_prevAngle = m_prevAngle;
+	}
+
+	@Override
+	public void present(int slot) {
+		m_state = m_snapshots[slot];
+	}
+
+	@Override
+	public void render(double alpha) {
+        // model transform
+        M.rotation(toRadians((float)lerp(m_state.m_prevAngle, m_state.m_angle, alpha)));
 
         // render axis
-        glBegin(GL_LINES);
-        glColor3f(0f, 0f, 0f);
-        glVertex3f(-1f, 0, 0f);
-        glVertex3f(1f, 0, 0f);
-        glVertex3f(0, -1f, 0f);
-        glVertex3f(0, 1f, 0f);
-        glEnd();
-        
+        final int black = rgb(0f, 0f, 0f);
+        line(-1f, 0f, black, 1f, 0f, black);
+        line(0f, -1f, black, 0f, 1f, black);
+
         /* Render triangle */
-        glBegin(GL_TRIANGLES);
-        glColor3f(1f, 0f, 0f);
-        glVertex3f(-s2, -h/3, 0f);
-        glColor3f(0f, 1f, 0f);
-        glVertex3f(s2, -h/3, 0f);
-        glColor3f(0f, 0f, 1f);
-        glVertex3f(0f, 2*h/3, 0f);
-        glEnd();
+        triangle(
+        	-s2, -h/3, rgb(1f, 0f, 0f),
+        	s2, -h/3, rgb(0f, 1f, 0f),
+        	0f, 2*h/3, rgb(0f, 0f, 1f)
+        );
+
+        flush();
 	}
 	
 	public void changeSpeed(double delta) {
@@ -0,0 +1,52 @@
+package org.lwjgl.demo.util;
+
+import org.joml.Matrix4x3d;
+import org.joml.Matrix4x3dc;
+
+/**
+ * The extent of a mesh in model space: an axis-aligned bounding box and a bounding sphere around its center.
+ */
+public final class Bounds {
+	public final float minX, minY, minZ;
+	public final float maxX, maxY, maxZ;
+	public final float centerX, centerY, centerZ;	// center of the box and the sphere
+	public final float radius;						// largest distance of a vertex from the center
+
+	public Bounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, float radius) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+		this.centerX = (minX + maxX)/2;
+		this.centerY = (minY + maxY)/2;
+		this.centerZ = (minZ + maxZ)/2;
+		this.radius = radius;
+	}
+
+	// the largest factor by which the transform scales a length, i.e. the radius of a bounding sphere
+	public static double maxScale(Matrix4x3dc m) {
+		double x = m.m00()*m.m00() + m.m01()*m.m01() + m.m02()*m.m02();
+		double y = m.m10()*m.m10() + m.m11()*m.m11() + m.m12()*m.m12();
+		double z = m.m20()*m.m20() + m.m21()*m.m21() + m.m22()*m.m22();
+		return Math.sqrt(Math.max(x, Math.max(y, z)));
+	}
+
+	// edge length of the cube at min into which positions are quantized, the same for all axes
+	// so that the dequantization doesn't change the direction of normals
+	public float quantizationExtent() {
+		float extent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+		return extent > 0 ? extent : 1;
+	}
+
+	// the transform from quantized positions in [0, 1] back to model space, to be applied before the model transform
+	public Matrix4x3d dequantization(Matrix4x3d dest) {
+		return dest.translation(minX, minY, minZ).scale(quantizationExtent());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[%.3f %.3f %.3f] - [%.3f %.3f %.3f], radius %.3f", minX, minY, minZ, maxX, maxY, maxZ, radius);
+	}
+}
@@ -0,0 +1,30 @@
+package org.lwjgl.demo.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Completion queue for work that needs the OpenGL context, e.g. uploading meshes that have been built
+ * on worker threads. Any thread may submit tasks; they are run by the thread owning the context
+ * when the queue is drained between two frames.
+ */
+public class ContextExecutor implements Executor {
+	private final Queue<Runnable> m_tasks = new ConcurrentLinkedQueue<>();
+
+	@Override
+	public void execute(Runnable task) {
+		m_tasks.add(task);
+	}
+
+	// runs all queued tasks; must be called by the thread owning the OpenGL context
+	public int drain() {
+		int count = 0;
+		Runnable task;
+		while ((task = m_tasks.poll()) != null) {
+			task.run();
+			count++;
+		}
+		return count;
+	}
+}
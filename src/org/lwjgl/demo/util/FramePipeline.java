@@ -0,0 +1,59 @@
+package org.lwjgl.demo.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Hands frame snapshots from the simulation thread to the render thread. A model keeps two snapshot
+ * slots: while the render thread submits the frame in one slot, the simulation thread fills the other one.
+ * The simulation thread runs at most one frame ahead, because it waits until the render thread has
+ * finished the slot it wants to fill next. The semaphores also make the written snapshot visible to
+ * the render thread.
+ */
+public class FramePipeline {
+	private final Semaphore m_free = new Semaphore(2);	// slots the simulation thread may fill
+	private final Semaphore m_ready = new Semaphore(0);	// slots ready to be rendered
+	private final double[] m_alpha = new double[2];		// interpolation factor of each slot
+	private int m_write;	// slot filled next, only used by the simulation thread
+	private int m_read;		// slot rendered next, only used by the render thread
+	private volatile boolean m_closed;
+
+	// simulation thread: waits until the next slot has been rendered and returns its index
+	public int beginWrite() {
+		m_free.acquireUninterruptibly();
+		return m_write;
+	}
+
+	// simulation thread: passes the filled slot to the render thread
+	public void endWrite(double alpha) {
+		m_alpha[m_write] = alpha;
+		m_write ^= 1;
+		m_ready.release();
+	}
+
+	// render thread: waits for the next filled slot and returns its index, or -1 if the pipeline is closed
+	public int beginRead() {
+		m_ready.acquireUninterruptibly();
+		return m_closed ? -1 : m_read;
+	}
+
+	public double getAlpha(int slot) {
+		return m_alpha[slot];
+	}
+
+	// render thread: returns the rendered slot to the simulation thread
+	public void endRead() {
+		m_read ^= 1;
+		m_free.release();
+	}
+
+	// wakes up both threads, which then stop using the pipeline
+	public void close() {
+		m_closed = true;
+		m_ready.release();
+		m_free.release(2);
+	}
+
+	public boolean isClosed() {
+		return m_closed;
+	}
+}
@@ -0,0 +1,173 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL15C.GL_QUERY_RESULT;
+import static org.lwjgl.opengl.GL15C.GL_QUERY_RESULT_AVAILABLE;
+import static org.lwjgl.opengl.GL15C.glBeginQuery;
+import static org.lwjgl.opengl.GL15C.glDeleteQueries;
+import static org.lwjgl.opengl.GL15C.glEndQuery;
+import static org.lwjgl.opengl.GL15C.glGenQueries;
+import static org.lwjgl.opengl.GL15C.glGetQueryObjecti;
+import static org.lwjgl.opengl.GL33C.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33C.glGetQueryObjectui64;
+
+import java.util.Arrays;
+
+import org.lwjgl.opengl.GL;
+
+/**
+ * Frame time statistics of the render loop. Each frame records the frame time (interval between two
+ * frame starts), the CPU time spent in the frame and, if timer queries are available, the GPU time of the
+ * frame. The GPU times are measured with a ring of GL_TIME_ELAPSED queries whose results are only read
+ * back once they are available, so measuring never stalls the pipeline. Recording doesn't allocate.
+ */
+public class FrameStats {
+	private final static int QueryCount = 8;	// frames the GPU may lag behind before samples are dropped
+
+	/**
+	 * A fixed-size histogram of durations with a resolution of 10 microseconds up to 200 ms. Longer
+	 * durations are counted in an overflow bucket, but the maximum is recorded exactly.
+	 */
+	public static final class Histogram {
+		private final static long BucketNanos = 10_000;
+		private final static int BucketCount = 20_000;
+
+		private final int[] m_buckets = new int[BucketCount + 1]; // last bucket: overflow
+		private long m_count;
+		private long m_sum;		// nanoseconds
+		private long m_max;		// nanoseconds
+
+		public void record(long nanos) {
+			m_buckets[(int)Math.min(nanos/BucketNanos, BucketCount)]++;
+			m_count++;
+			m_sum += nanos;
+			m_max = Math.max(m_max, nanos);
+		}
+
+		public long getCount() {
+			return m_count;
+		}
+
+		public double getMeanMillis() {
+			return m_count > 0 ? m_sum/1e6/m_count : 0;
+		}
+
+		public double getMaxMillis() {
+			return m_max/1e6;
+		}
+
+		// upper bound of the bucket containing the given percentile (0..100) in milliseconds
+		public double getPercentileMillis(double percentile) {
+			if (m_count == 0)
+				return 0;
+			long rank = Math.max(1, (long)Math.ceil(percentile/100*m_count));
+			long n = 0;
+			for (int i = 0; i < BucketCount; i++) {
+				n += m_buckets[i];
+				if (n >= rank)
+					return Math.min((i + 1)*BucketNanos, m_max)/1e6;
+			}
+			return getMaxMillis();
+		}
+
+		public void reset() {
+			Arrays.fill(m_buckets, 0);
+			m_count = m_sum = m_max = 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms (%d samples)",
+				getPercentileMillis(50), getPercentileMillis(95), getPercentileMillis(99), getMaxMillis(), m_count);
+		}
+	}
+
+	private final Histogram m_frame = new Histogram();
+	private final Histogram m_cpu = new Histogram();
+	private final Histogram m_gpu = new Histogram();
+	private final int[] m_queries;		// ring of timer queries, null if not supported
+	private final boolean[] m_pending;	// queries whose results haven't been read yet
+	private int m_query;				// next query of the ring
+	private boolean m_timing;			// a query has been started in this frame
+	private long m_frameStart;			// nanoseconds, 0 before the first frame
+
+	// must be called on the thread owning the OpenGL context
+	public FrameStats() {
+		if (GL.getCapabilities().OpenGL33 || GL.getCapabilities().GL_ARB_timer_query) {
+			m_queries = new int[QueryCount];
+			glGenQueries(m_queries);
+		} else {
+			m_queries = null;
+		}
+		m_pending = new boolean[QueryCount];
+	}
+
+	public Histogram getFrameTimes() {
+		return m_frame;
+	}
+
+	public Histogram getCpuTimes() {
+		return m_cpu;
+	}
+
+	public Histogram getGpuTimes() {
+		return m_gpu;
+	}
+
+	public void beginFrame() {
+		long now = System.nanoTime();
+		if (m_frameStart != 0)
+			m_frame.record(now - m_frameStart);
+		m_frameStart = now;
+
+		if (m_queries != null) {
+			collect();
+			m_timing = !m_pending[m_query]; // otherwise the GPU is too far behind: skip this frame instead of waiting
+			if (m_timing)
+				glBeginQuery(GL_TIME_ELAPSED, m_queries[m_query]);
+		}
+	}
+
+	// called after all commands of the frame have been issued, before swapping buffers
+	public void endFrame() {
+		m_cpu.record(System.nanoTime() - m_frameStart);
+
+		if (m_timing) {
+			glEndQuery(GL_TIME_ELAPSED);
+			m_pending[m_query] = true;
+			m_query = (m_query + 1)%QueryCount;
+			m_timing = false;
+		}
+	}
+
+	// records the results of all finished queries without blocking
+	private void collect() {
+		for (int i = 0; i < QueryCount; i++) {
+			if (m_pending[i] && glGetQueryObjecti(m_queries[i], GL_QUERY_RESULT_AVAILABLE) != 0) {
+				m_gpu.record(glGetQueryObjectui64(m_queries[i], GL_QUERY_RESULT));
+				m_pending[i] = false;
+			}
+		}
+	}
+
+	public void reset() {
+		m_frame.reset();
+		m_cpu.reset();
+		m_gpu.reset();
+	}
+
+	public void free() {
+		if (m_queries != null)
+			glDeleteQueries(m_queries);
+	}
+
+	public String report() {
+		if (m_queries != null)
+			collect();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("frame: %.1f fps, %s%n", m_frame.getCount() > 0 ? 1000/m_frame.getMeanMillis() : 0, m_frame));
+		sb.append("cpu  : ").append(m_cpu).append(System.lineSeparator());
+		sb.append("gpu  : ").append(m_queries != null ? m_gpu.toString() : "timer queries not supported");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,71 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL11C.GL_RGBA8;
+import static org.lwjgl.opengl.GL14C.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL30C.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH_ATTACHMENT;
+import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30C.GL_RENDERBUFFER;
+import static org.lwjgl.opengl.GL30C.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30C.glBindRenderbuffer;
+import static org.lwjgl.opengl.GL30C.glCheckFramebufferStatus;
+import static org.lwjgl.opengl.GL30C.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30C.glDeleteRenderbuffers;
+import static org.lwjgl.opengl.GL30C.glFramebufferRenderbuffer;
+import static org.lwjgl.opengl.GL30C.glGenFramebuffers;
+import static org.lwjgl.opengl.GL30C.glGenRenderbuffers;
+import static org.lwjgl.opengl.GL30C.glRenderbufferStorage;
+
+/**
+ * An offscreen frame buffer object with an RGBA color and a depth render buffer. It replaces the default
+ * frame buffer of the window in headless mode, so the models render exactly as they would on screen.
+ */
+public class Framebuffer {
+	private final int m_FBO;
+	private final int m_color;	// color render buffer
+	private final int m_depth;	// depth render buffer
+	private final int m_width, m_height;
+
+	public Framebuffer(int width, int height) {
+		m_width = width;
+		m_height = height;
+
+		m_color = glGenRenderbuffers();
+		glBindRenderbuffer(GL_RENDERBUFFER, m_color);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+		m_depth = glGenRenderbuffers();
+		glBindRenderbuffer(GL_RENDERBUFFER, m_depth);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+		glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+		m_FBO = glGenFramebuffers();
+		glBindFramebuffer(GL_FRAMEBUFFER, m_FBO);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, m_color);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, m_depth);
+		int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+		if (status != GL_FRAMEBUFFER_COMPLETE) {
+			throw new IllegalStateException("Incomplete frame buffer: 0x" + Integer.toHexString(status));
+		}
+	}
+
+	public int getWidth() {
+		return m_width;
+	}
+
+	public int getHeight() {
+		return m_height;
+	}
+
+	// all subsequent draw calls render into this frame buffer
+	public void bind() {
+		glBindFramebuffer(GL_FRAMEBUFFER, m_FBO);
+	}
+
+	public void free() {
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		glDeleteFramebuffers(m_FBO);
+		glDeleteRenderbuffers(m_color);
+		glDeleteRenderbuffers(m_depth);
+	}
+}
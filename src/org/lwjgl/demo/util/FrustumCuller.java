@@ -0,0 +1,136 @@
+package org.lwjgl.demo.util;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.joml.Matrix4dc;
+import org.joml.Vector4d;
+
+/**
+ * Tests world space bounding spheres against the six planes of the view frustum. The spheres are stored as
+ * structure of arrays (one array per coordinate), so the culling loops read the arrays sequentially and
+ * have no branches, which lets the JIT vectorize them. Large sets of spheres are split into chunks culled in
+ * parallel by the common fork-join pool. Like the render queue, the arrays only grow, so adding doesn't
+ * allocate in the steady state.
+ */
+public class FrustumCuller {
+	private final static int ChunkSize = 1 << 14;	// spheres per parallel task
+
+	// frustum planes a*x + b*y + c*z + d >= 0 with normalized (a, b, c) pointing inside
+	private final float[] m_a = new float[6], m_b = new float[6], m_c = new float[6], m_d = new float[6];
+	private final Vector4d m_plane = new Vector4d();
+
+	private int m_count;
+	private float[] m_x, m_y, m_z, m_r;	// sphere centers and radii
+	private float[] m_distance;			// smallest signed distance of each center from a plane
+	private boolean[] m_visible;		// result of the last cull
+	private boolean m_parallel = true;
+
+	public FrustumCuller(int capacity) {
+		m_x = new float[capacity];
+		m_y = new float[capacity];
+		m_z = new float[capacity];
+		m_r = new float[capacity];
+		m_distance = new float[capacity];
+		m_visible = new boolean[capacity];
+	}
+
+	public int size() {
+		return m_count;
+	}
+
+	public void clear() {
+		m_count = 0;
+	}
+
+	// culls chunks in parallel if there are more spheres than one chunk
+	public void setParallel(boolean parallel) {
+		m_parallel = parallel;
+	}
+
+	// extracts the frustum planes from a projection*view matrix, so the spheres are given in world space
+	public void setFrustum(Matrix4dc PV) {
+		for (int i = 0; i < 6; i++) {
+			PV.frustumPlane(i, m_plane); // normalized
+			m_a[i] = (float)m_plane.x;
+			m_b[i] = (float)m_plane.y;
+			m_c[i] = (float)m_plane.z;
+			m_d[i] = (float)m_plane.w;
+		}
+	}
+
+	// adds a sphere and returns its index; an infinite radius is never culled
+	public int add(float x, float y, float z, float radius) {
+		if (m_count == m_x.length)
+			grow(Math.max(m_count*2, 16));
+
+		final int i = m_count++;
+		m_x[i] = x;
+		m_y[i] = y;
+		m_z[i] = z;
+		m_r[i] = radius;
+		return i;
+	}
+
+	private void grow(int capacity) {
+		m_x = Arrays.copyOf(m_x, capacity);
+		m_y = Arrays.copyOf(m_y, capacity);
+		m_z = Arrays.copyOf(m_z, capacity);
+		m_r = Arrays.copyOf(m_r, capacity);
+		m_distance = new float[capacity];
+		m_visible = new boolean[capacity];
+	}
+
+	// tests all spheres against the current frustum and returns the number of visible spheres
+	public int cull() {
+		if (m_parallel && m_count > ChunkSize) {
+			IntStream.range(0, (m_count + ChunkSize - 1)/ChunkSize).parallel()
+				.forEach(chunk -> cull(chunk*ChunkSize, Math.min((chunk + 1)*ChunkSize, m_count)));
+		} else {
+			cull(0, m_count);
+		}
+
+		int visible = 0;
+		for (int i = 0; i < m_count; i++) {
+			visible += m_visible[i] ? 1 : 0;
+		}
+		return visible;
+	}
+
+	// one pass per plane over the chunk keeps each loop simple enough for the JIT to vectorize it
+	private void cull(int from, int to) {
+		final float[] x = m_x, y = m_y, z = m_z, r = m_r, distance = m_distance;
+
+		Arrays.fill(distance, from, to, Float.POSITIVE_INFINITY);
+		for (int p = 0; p < 6; p++) {
+			final float a = m_a[p], b = m_b[p], c = m_c[p], d = m_d[p];
+			for (int i = from; i < to; i++) {
+				distance[i] = Math.min(distance[i], a*x[i] + b*y[i] + c*z[i] + d);
+			}
+		}
+
+		// a sphere is outside if its center is farther than its radius behind any plane
+		final boolean[] visible = m_visible;
+		for (int i = from; i < to; i++) {
+			visible[i] = distance[i] + r[i] >= 0;
+		}
+	}
+
+	// the visibility of each sphere after the last cull, indexed like add
+	public boolean[] getVisible() {
+		return m_visible;
+	}
+
+	public boolean isVisible(int index) {
+		return m_visible[index];
+	}
+
+	// tests a single sphere against the current frustum
+	public boolean isVisible(float x, float y, float z, float radius) {
+		for (int i = 0; i < 6; i++) {
+			if (m_a[i]*x + m_b[i]*y + m_c[i]*z + m_d[i] < -radius)
+				return false;
+		}
+		return true;
+	}
+}
@@ -7,9 +7,11 @@ package org.lwjgl.demo.util;
 import org.lwjgl.*;
 
 import java.io.*;
+import java.net.*;
 import java.nio.*;
 import java.nio.channels.*;
 import java.nio.file.*;
+import java.util.*;
 
 import static org.lwjgl.BufferUtils.*;
 import static org.lwjgl.system.MemoryUtil.*;
@@ -70,4 +72,132 @@ public final class IOUtil {
         return memSlice(buffer);
     }
 
+    /**
+    *A handle of a loaded resource. The data is shared by all handles of the same name until the last one
+    *is closed. The data of file system resources is mapped read-only, the data of class path resources in
+    *jars is read into off-heap memory of exactly the size of the jar entry.
+     */
+    public static final class Resource implements AutoCloseable {
+        private final Shared m_shared;
+        private boolean      m_closed; // guarded by s_resources
+
+        private Resource(Shared shared) {
+            m_shared = shared;
+        }
+
+        // a read-only view of the whole resource with its own position and limit
+        public ByteBuffer data() {
+            return m_shared.m_data.asReadOnlyBuffer();
+        }
+
+        public int size() {
+            return m_shared.m_data.capacity();
+        }
+
+        // releases this handle, further calls have no effect
+        @Override
+        public void close() {
+            Shared shared = m_shared;
+            synchronized (s_resources) {
+                if (m_closed) {
+                    return;
+                }
+                m_closed = true;
+                if (--shared.m_refCount > 0) {
+                    return;
+                }
+                s_resources.remove(shared.m_name, shared);
+            }
+            if (!shared.m_mapped) {
+                memFree(shared.m_data);
+            } // a mapping is released when the buffer is garbage collected
+        }
+    }
+
+    // the data of a resource and the number of open handles to it
+    private static final class Shared {
+        private final String     m_name;
+        private final ByteBuffer m_data;
+        private final boolean    m_mapped;   // false: allocated with memAlloc
+        private int              m_refCount; // guarded by s_resources
+
+        private Shared(String name, ByteBuffer data, boolean mapped) {
+            m_name = name;
+            m_data = data;
+            m_mapped = mapped;
+        }
+    }
+
+    private static final Map<String, Shared> s_resources = new HashMap<>();
+
+    /**
+    *Returns the specified resource without copying it on the heap. A readable file system path is mapped
+    *with FileChannel.map, otherwise the resource is loaded from the class path. Loaded resources are cached
+    *and reference counted by name; every call returns its own handle, which must be closed.
+     *
+    *@param resource the file system path or class path name of the resource
+     *
+    *@return a new handle of the shared resource
+     *
+    *@throws IOException if the resource doesn't exist or an IO error occurs
+     */
+    public static Resource mapResource(String resource) throws IOException {
+        synchronized (s_resources) {
+            Shared shared = s_resources.get(resource);
+            if (shared == null) {
+                shared = loadResource(resource);
+                s_resources.put(resource, shared);
+            }
+            shared.m_refCount++;
+            return new Resource(shared);
+        }
+    }
+
+    private static Shared loadResource(String resource) throws IOException {
+        Path path = Paths.get(resource);
+        if (Files.isReadable(path)) {
+            return new Shared(resource, map(path), true);
+        }
+
+        URL url = IOUtil.class.getClassLoader().getResource(resource);
+        if (url == null) {
+            throw new FileNotFoundException(resource);
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new Shared(resource, map(Paths.get(url.toURI())), true); // e.g. resources directory in the IDE
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        URLConnection connection = url.openConnection();
+        long size = connection instanceof JarURLConnection
+            ? ((JarURLConnection)connection).getJarEntry().getSize()
+            : connection.getContentLengthLong();
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Unknown or unsupported size of " + resource);
+        }
+
+        ByteBuffer data = memAlloc((int)size);
+        try (
+            InputStream source = connection.getInputStream();
+            ReadableByteChannel rbc = Channels.newChannel(source)
+        ) {
+            while (data.hasRemaining() && rbc.read(data) != -1) {
+                ;
+            }
+        } catch (IOException e) {
+            memFree(data);
+            throw e;
+        }
+        return new Shared(resource, data.flip(), false);
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()); // stays valid after closing the channel
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL11C.GL_FLOAT;
+import static org.lwjgl.opengl.GL15C.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15C.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL15C.glBindBuffer;
+import static org.lwjgl.opengl.GL15C.glBufferData;
+import static org.lwjgl.opengl.GL15C.glGenBuffers;
+import static org.lwjgl.opengl.GL20C.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20C.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30C.glBindVertexArray;
+import static org.lwjgl.opengl.GL31C.glDrawArraysInstanced;
+import static org.lwjgl.opengl.GL31C.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL33C.glVertexAttribDivisor;
+import static org.lwjgl.system.MemoryUtil.memAllocFloat;
+import static org.lwjgl.system.MemoryUtil.memRealloc;
+
+import java.nio.FloatBuffer;
+
+import org.joml.Matrix4x3d;
+import org.joml.Matrix4x3dc;
+import org.joml.Vector3d;
+import org.lwjgl.demo.util.VertexFormat.Attribute;
+import org.lwjgl.opengl.GL;
+
+/**
+ * Collects per-instance model transforms and colors of one mesh and draws all instances with a single
+ * instanced draw call. The instance attributes are recorded in the VAO of the mesh, hence a mesh should
+ * only be attached to one instance buffer.
+ */
+public class InstanceBuffer {
+	private final static int FloatsPerInstance = 4 + 4*3; // color + mat4x3
+	private final static int Stride = FloatsPerInstance*Float.BYTES;
+
+	private final OGLObject m_mesh;
+	private final int m_VBO;
+	private FloatBuffer m_instances;
+	private int m_instanceCount;
+	private boolean m_dirty;	// true if the instances have changed since the last upload
+	private Bounds m_bounds;	// union of the bounds of all instances, null if empty or unbounded
+	private boolean m_unbounded;	// an instance has been added before the mesh had bounds
+	private final Vector3d m_center = new Vector3d();
+	private final Matrix4x3d m_model = new Matrix4x3d();
+
+	public InstanceBuffer(OGLObject mesh, int capacity) {
+		if (!GL.getCapabilities().OpenGL33) {
+			throw new IllegalStateException("Instanced rendering requires OpenGL 3.3 or higher.");
+		}
+		m_mesh = mesh;
+		m_instances = memAllocFloat(Math.max(capacity, 1)*FloatsPerInstance);
+		m_VBO = glGenBuffers();
+
+		// record the per-instance attributes in the VAO of the mesh
+		mesh.bind();
+		glBindBuffer(GL_ARRAY_BUFFER, m_VBO);
+		int color = Attribute.INSTANCE_COLOR.location;
+		glEnableVertexAttribArray(color);
+		glVertexAttribPointer(color, 4, GL_FLOAT, false, Stride, 0);
+		glVertexAttribDivisor(color, 1);
+		for (int i = 0; i < 4; i++) { // one location per matrix column
+			int column = Attribute.INSTANCE_MODEL.location + i;
+			glEnableVertexAttribArray(column);
+			glVertexAttribPointer(column, 3, GL_FLOAT, false, Stride, (4 + i*3)*Float.BYTES);
+			glVertexAttribDivisor(column, 1);
+		}
+		glBindVertexArray(0);
+	}
+
+	public OGLObject getMesh() {
+		return m_mesh;
+	}
+
+	public int getInstanceCount() {
+		return m_instanceCount;
+	}
+
+	public void clear() {
+		m_instanceCount = 0;
+		m_dirty = true;
+		m_bounds = null;
+		m_unbounded = false;
+	}
+
+	// the extent of all instances in the space of the model transforms, null if unknown
+	public Bounds getBounds() {
+		return m_unbounded ? null : m_bounds;
+	}
+
+	public InstanceBuffer add(Matrix4x3d model, float r, float g, float b, float a) {
+		if ((m_instanceCount + 1)*FloatsPerInstance > m_instances.capacity()) {
+			m_instances = memRealloc(m_instances, m_instances.capacity()*2);
+		}
+		int base = m_instanceCount*FloatsPerInstance;
+		m_instances.put(base + 0, r);
+		m_instances.put(base + 1, g);
+		m_instances.put(base + 2, b);
+		m_instances.put(base + 3, a);
+		Matrix4x3dc D = m_mesh.getDequantization();
+		if (D != null) {
+			model.mul(D, m_model).get(base + 4, m_instances); // folded into the per-instance transform
+		} else {
+			model.get(base + 4, m_instances); // column-major 4x3
+		}
+		include(model);
+
+		m_instanceCount++;
+		m_dirty = true;
+		return this;
+	}
+
+	// uploads the instances if they have changed and draws all of them in one draw call
+	public void draw(int mode) {
+		if (m_dirty) {
+			m_instances.limit(m_instanceCount*FloatsPerInstance);
+			glBindBuffer(GL_ARRAY_BUFFER, m_VBO);
+			glBufferData(GL_ARRAY_BUFFER, m_instances, GL_STREAM_DRAW);
+			m_instances.clear();
+			m_dirty = false;
+		}
+		m_mesh.bind();
+		if (m_mesh.isIndexed()) {
+			glDrawElementsInstanced(mode, m_mesh.getIndexCount(), m_mesh.getIndexType(), 0, m_instanceCount);
+		} else {
+			glDrawArraysInstanced(mode, 0, m_mesh.getVertexCount(), m_instanceCount);
+		}
+	}
+
+	// extends the bounds by the bounding box of the transformed bounding sphere of the mesh
+	private void include(Matrix4x3d model) {
+		Bounds mesh = m_mesh.getBounds();
+		if (mesh == null) {
+			m_unbounded = true;
+			return;
+		}
+		model.transformPosition(m_center.set(mesh.centerX, mesh.centerY, mesh.centerZ));
+		final float x = (float)m_center.x, y = (float)m_center.y, z = (float)m_center.z;
+		final float r = mesh.radius*(float)Bounds.maxScale(model);
+
+		Bounds b = m_bounds;
+		float minX = x - r, minY = y - r, minZ = z - r, maxX = x + r, maxY = y + r, maxZ = z + r;
+		if (b != null) {
+			minX = Math.min(minX, b.minX); minY = Math.min(minY, b.minY); minZ = Math.min(minZ, b.minZ);
+			maxX = Math.max(maxX, b.maxX); maxY = Math.max(maxY, b.maxY); maxZ = Math.max(maxZ, b.maxZ);
+		}
+		final float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		m_bounds = new Bounds(minX, minY, minZ, maxX, maxY, maxZ, (float)Math.sqrt(dx*dx + dy*dy + dz*dz)/2);
+	}
+}
@@ -0,0 +1,387 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_SHORT;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.system.MemoryUtil.memRealloc;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joml.Vector3f;
+import org.lwjgl.demo.util.VertexFormat.Attribute;
+import org.lwjgl.demo.util.VertexFormat.Element;
+
+/**
+ * Builds a mesh of interleaved vertices of a given VertexFormat in off-heap memory.
+ * The attributes of the current vertex are set in any order and committed with endVertex().
+ * The storage grows geometrically, or can be reserved exactly if the vertex count is known in advance,
+ * and is handed to glBufferData without copying. After writing, weld() merges identical vertices and
+ * produces an index buffer. A builder can be reused for several meshes by calling clear().
+ */
+public class MeshBuilder {
+	private final VertexFormat m_format;
+	private final int m_stride;
+	private final int m_position, m_normal, m_color, m_uv; // byte offsets or -1
+	private final boolean m_packedPosition, m_packedNormal; // stored as unsigned shorts or 2_10_10_10 ints, see compress
+	private Bounds m_bounds;		// model space bounds of quantized positions, null if the positions are floats
+	private ByteBuffer m_vertices;
+	private int m_vertexCount;
+	private ByteBuffer m_indices;	// null if not indexed
+	private int m_indexCount;
+	private int m_indexType;		// GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+
+	private final static int DefaultCapacity = 256; // vertices
+
+	public MeshBuilder(VertexFormat format) {
+		this(format, DefaultCapacity);
+	}
+
+	public MeshBuilder(VertexFormat format, int capacity) {
+		m_format = format;
+		m_stride = format.getStride();
+		m_position = offset(format, Attribute.POSITION);
+		m_normal = offset(format, Attribute.NORMAL);
+		m_color = offset(format, Attribute.COLOR);
+		m_uv = offset(format, Attribute.UV);
+		m_packedPosition = format.isQuantized();
+		m_packedNormal = format.has(Attribute.NORMAL) && !format.getElement(Attribute.NORMAL).isFloat();
+		m_vertices = memAlloc(Math.max(capacity, 1)*m_stride);
+	}
+
+	private static int offset(VertexFormat format, Attribute attribute) {
+		Element e = format.getElement(attribute);
+		return e == null ? -1 : e.offset;
+	}
+
+	public VertexFormat getFormat() {
+		return m_format;
+	}
+
+	public int getVertexCount() {
+		return m_vertexCount;
+	}
+
+	// number of vertices that fit without growing the storage
+	public int getCapacity() {
+		return m_vertices.capacity()/m_stride;
+	}
+
+	// ensures that the given total number of vertices fits without growing the storage again
+	public MeshBuilder reserve(int vertexCount) {
+		if (vertexCount > getCapacity()) {
+			resize(vertexCount);
+		}
+		return this;
+	}
+
+	// discards all vertices and indices, but keeps the storage for the next mesh
+	public MeshBuilder clear() {
+		memFree(m_indices);
+		m_indices = null;
+		m_indexCount = 0;
+		m_vertexCount = 0;
+		m_vertices.clear();
+		return this;
+	}
+
+	public MeshBuilder position(float x, float y, float z) {
+		return put3f(m_vertexCount, m_position, Attribute.POSITION, x, y, z);
+	}
+
+	public MeshBuilder normal(float x, float y, float z) {
+		return put3f(m_vertexCount, m_normal, Attribute.NORMAL, x, y, z);
+	}
+
+	public MeshBuilder color(float r, float g, float b, float a) {
+		int base = base(m_vertexCount, m_color, Attribute.COLOR);
+		m_vertices.putFloat(base, r);
+		m_vertices.putFloat(base + 4, g);
+		m_vertices.putFloat(base + 8, b);
+		m_vertices.putFloat(base + 12, a);
+		return this;
+	}
+
+	public MeshBuilder uv(float u, float v) {
+		int base = base(m_vertexCount, m_uv, Attribute.UV);
+		m_vertices.putFloat(base, u);
+		m_vertices.putFloat(base + 4, v);
+		return this;
+	}
+
+	// commits the current vertex
+	public MeshBuilder endVertex() {
+		if (m_indices != null)
+			throw new IllegalStateException("Vertices have already been welded");
+		m_vertexCount++;
+		return this;
+	}
+
+	// random access to already written vertices, e.g. for normal smoothing;
+	// quantized positions are returned in [0, 1] relative to the bounds, see compress
+	public Vector3f getPosition(int vertex, Vector3f dest) {
+		return get3f(vertex, m_position, Attribute.POSITION, dest);
+	}
+
+	public Vector3f getNormal(int vertex, Vector3f dest) {
+		return get3f(vertex, m_normal, Attribute.NORMAL, dest);
+	}
+
+	public void setNormal(int vertex, float x, float y, float z) {
+		put3f(vertex, m_normal, Attribute.NORMAL, x, y, z);
+	}
+
+	// emulates glShadeModel(GL_SMOOTH): all vertices in the given range sharing a position get the
+	// normalized sum of their normals
+	public void smoothNormals(int first, int count) {
+		final Vector3f n = new Vector3f();
+		Map<Vector3f, Vector3f> smoothMap = new HashMap<>(count/2);
+
+		// Sum normals around same position
+		for (int i = first; i < first + count; i++) {
+			getNormal(i, n);
+
+			smoothMap.compute(getPosition(i, new Vector3f()), (key, normal) -> normal == null
+				? new Vector3f(n)
+				: normal.add(n));
+		}
+
+		// Normalize
+		smoothMap.values().forEach(Vector3f::normalize);
+
+		// Apply smooth normals
+		for (int i = first; i < first + count; i++) {
+			Vector3f normal = smoothMap.get(getPosition(i, n));
+
+			setNormal(i, normal.x, normal.y, normal.z);
+		}
+	}
+
+	/**
+	 * Computes the bounding box of all vertex positions and the bounding sphere around its center,
+	 * or returns null if the mesh is empty. Welding doesn't change the bounds.
+	 */
+	public Bounds getBounds() {
+		if (m_packedPosition)
+			return m_bounds; // of the positions before quantization
+		if (m_vertexCount == 0)
+			return null;
+
+		float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+		for (int i = 0; i < m_vertexCount; i++) {
+			int base = base(i, m_position, Attribute.POSITION);
+			float x = m_vertices.getFloat(base), y = m_vertices.getFloat(base + 4), z = m_vertices.getFloat(base + 8);
+			minX = Math.min(minX, x); maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y); maxY = Math.max(maxY, y);
+			minZ = Math.min(minZ, z); maxZ = Math.max(maxZ, z);
+		}
+
+		final float cx = (minX + maxX)/2, cy = (minY + maxY)/2, cz = (minZ + maxZ)/2;
+		float r2 = 0;
+		for (int i = 0; i < m_vertexCount; i++) {
+			int base = base(i, m_position, Attribute.POSITION);
+			float dx = m_vertices.getFloat(base) - cx, dy = m_vertices.getFloat(base + 4) - cy, dz = m_vertices.getFloat(base + 8) - cz;
+			r2 = Math.max(r2, dx*dx + dy*dy + dz*dz);
+		}
+		return new Bounds(minX, minY, minZ, maxX, maxY, maxZ, (float)Math.sqrt(r2));
+	}
+
+	/**
+	 * Returns a new builder with the vertices of this one in the compressed format (see VertexFormat.compressed),
+	 * which has to be welded afterwards: positions are quantized to 16 bits per component relative to the
+	 * bounds of this mesh, normals are packed into 10 bits per component. The dequantization of the positions
+	 * is folded into the model transform of the uploaded object.
+	 */
+	public MeshBuilder compress() {
+		if (m_indices != null)
+			throw new IllegalStateException("Vertices have already been welded");
+		if (m_packedPosition || m_packedNormal)
+			throw new IllegalStateException("Vertices have already been compressed");
+
+		final MeshBuilder packed = new MeshBuilder(m_format.compressed(), m_vertexCount);
+		final Bounds bounds = getBounds();
+		final Vector3f v = new Vector3f();
+		packed.m_bounds = bounds;
+
+		final float scale = bounds != null ? 1/bounds.quantizationExtent() : 1;
+		for (int i = 0; i < m_vertexCount; i++) {
+			if (m_position >= 0) {
+				getPosition(i, v);
+				packed.position((v.x - bounds.minX)*scale, (v.y - bounds.minY)*scale, (v.z - bounds.minZ)*scale);
+			}
+			if (m_normal >= 0) {
+				getNormal(i, v);
+				packed.normal(v.x, v.y, v.z);
+			}
+			for (Element e : m_format.getElements()) { // the other elements are copied unchanged
+				if (e.attribute != Attribute.POSITION && e.attribute != Attribute.NORMAL) {
+					Element to = packed.m_format.getElement(e.attribute);
+					memCopy(memAddress(m_vertices, i*m_stride + e.offset), memAddress(packed.m_vertices, packed.base(i, to.offset, e.attribute)), e.bytes);
+				}
+			}
+			packed.endVertex();
+		}
+		return packed;
+	}
+
+	// returns the written vertices ready to be passed to glBufferData
+	public ByteBuffer getVertices() {
+		m_vertices.limit(m_vertexCount*m_stride);
+		return m_vertices;
+	}
+
+	public boolean isIndexed() {
+		return m_indices != null;
+	}
+
+	public int getIndexCount() {
+		return m_indexCount;
+	}
+
+	public int getIndexType() {
+		return m_indexType;
+	}
+
+	// returns the indices ready to be passed to glBufferData, or null if weld hasn't been called
+	public ByteBuffer getIndices() {
+		return m_indices;
+	}
+
+	/**
+	 * Merges all vertices with identical attributes (e.g. the same position and normal) into one and
+	 * replaces the vertex sequence by an index buffer referencing the remaining unique vertices.
+	 * 16-bit indices are used if the unique vertices fit, otherwise 32-bit indices.
+	 */
+	public void weld() {
+		if (m_indices != null)
+			throw new IllegalStateException("Vertices have already been welded");
+
+		final int words = m_stride/4; // vertex elements are 4-byte aligned
+		final int[] table = new int[Integer.highestOneBit(Math.max(m_vertexCount, 1)*2)*2]; // unique vertex + 1, 0 = empty
+		final int mask = table.length - 1;
+		final int[] remap = new int[m_vertexCount];
+		final long address = memAddress(m_vertices, 0);
+		int unique = 0;
+
+		for (int i = 0; i < m_vertexCount; i++) {
+			int h = hash(i, words) & mask;
+			int found = -1;
+			while (table[h] != 0) {
+				if (equal(table[h] - 1, i, words)) {
+					found = table[h] - 1;
+					break;
+				}
+				h = (h + 1) & mask; // linear probing
+			}
+			if (found < 0) {
+				// compact in place: unique <= i, so the slot of a unique vertex is never needed again
+				if (unique != i)
+					memCopy(address + (long)i*m_stride, address + (long)unique*m_stride, m_stride);
+				found = unique++;
+				table[h] = found + 1;
+			}
+			remap[i] = found;
+		}
+
+		m_indexCount = m_vertexCount;
+		m_vertexCount = unique;
+		if (unique <= 0x10000) {
+			m_indexType = GL_UNSIGNED_SHORT;
+			m_indices = memAlloc(m_indexCount*Short.BYTES);
+			for (int i = 0; i < m_indexCount; i++)
+				m_indices.putShort(i*Short.BYTES, (short)remap[i]);
+		} else {
+			m_indexType = GL_UNSIGNED_INT;
+			m_indices = memAlloc(m_indexCount*Integer.BYTES);
+			for (int i = 0; i < m_indexCount; i++)
+				m_indices.putInt(i*Integer.BYTES, remap[i]);
+		}
+	}
+
+	public void free() {
+		memFree(m_vertices);
+		memFree(m_indices);
+		m_vertices = null;
+		m_indices = null;
+	}
+
+	private void resize(int vertexCount) {
+		m_vertices.clear();
+		m_vertices = memRealloc(m_vertices, vertexCount*m_stride);
+	}
+
+	private int hash(int vertex, int words) {
+		int base = vertex*m_stride;
+		int h = 0;
+		for (int w = 0; w < words; w++)
+			h = 31*h + m_vertices.getInt(base + w*4);
+		return h ^ (h >>> 16);
+	}
+
+	private boolean equal(int a, int b, int words) {
+		int baseA = a*m_stride, baseB = b*m_stride;
+		for (int w = 0; w < words; w++)
+			if (m_vertices.getInt(baseA + w*4) != m_vertices.getInt(baseB + w*4))
+				return false;
+		return true;
+	}
+
+	private int base(int vertex, int offset, Attribute attribute) {
+		if (offset < 0)
+			throw new IllegalStateException(attribute + " is not part of the vertex format");
+		if (vertex >= getCapacity()) {
+			resize(Math.max(vertex + 1, getCapacity()*2)); // geometric growth: amortized constant time per vertex
+		}
+		return vertex*m_stride + offset;
+	}
+
+	private MeshBuilder put3f(int vertex, int offset, Attribute attribute, float x, float y, float z) {
+		int base = base(vertex, offset, attribute);
+		if (attribute == Attribute.POSITION && m_packedPosition) {
+			m_vertices.putShort(base, unorm16(x));
+			m_vertices.putShort(base + 2, unorm16(y));
+			m_vertices.putShort(base + 4, unorm16(z));
+			m_vertices.putShort(base + 6, (short)0); // padding to 4 bytes, weld compares whole words
+		} else if (attribute == Attribute.NORMAL && m_packedNormal) {
+			m_vertices.putInt(base, snorm10(x) | snorm10(y) << 10 | snorm10(z) << 20);
+		} else {
+			m_vertices.putFloat(base, x);
+			m_vertices.putFloat(base + 4, y);
+			m_vertices.putFloat(base + 8, z);
+		}
+		return this;
+	}
+
+	private Vector3f get3f(int vertex, int offset, Attribute attribute, Vector3f dest) {
+		int base = base(vertex, offset, attribute);
+		if (attribute == Attribute.POSITION && m_packedPosition) {
+			return dest.set(
+				(m_vertices.getShort(base) & 0xFFFF)/65535f,
+				(m_vertices.getShort(base + 2) & 0xFFFF)/65535f,
+				(m_vertices.getShort(base + 4) & 0xFFFF)/65535f
+			);
+		} else if (attribute == Attribute.NORMAL && m_packedNormal) {
+			int n = m_vertices.getInt(base);
+			return dest.set(snorm10(n << 22 >> 22), snorm10(n << 12 >> 22), snorm10(n << 2 >> 22));
+		}
+		return dest.set(m_vertices.getFloat(base), m_vertices.getFloat(base + 4), m_vertices.getFloat(base + 8));
+	}
+
+	private static short unorm16(float value) {
+		return (short)Math.round(Math.min(Math.max(value, 0), 1)*65535);
+	}
+
+	// the 10-bit two's complement of a component in [-1, 1]
+	private static int snorm10(float value) {
+		return Math.round(Math.min(Math.max(value, -1), 1)*511) & 0x3FF;
+	}
+
+	private static float snorm10(int value) {
+		return Math.max(value/511f, -1);
+	}
+}
@@ -0,0 +1,414 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.assimp.Assimp.aiGetErrorString;
+import static org.lwjgl.assimp.Assimp.aiImportFileEx;
+import static org.lwjgl.assimp.Assimp.aiOrigin_CUR;
+import static org.lwjgl.assimp.Assimp.aiOrigin_END;
+import static org.lwjgl.assimp.Assimp.aiOrigin_SET;
+import static org.lwjgl.assimp.Assimp.aiPrimitiveType_TRIANGLE;
+import static org.lwjgl.assimp.Assimp.aiProcess_GenSmoothNormals;
+import static org.lwjgl.assimp.Assimp.aiProcess_ImproveCacheLocality;
+import static org.lwjgl.assimp.Assimp.aiProcess_JoinIdenticalVertices;
+import static org.lwjgl.assimp.Assimp.aiProcess_PreTransformVertices;
+import static org.lwjgl.assimp.Assimp.aiProcess_SortByPType;
+import static org.lwjgl.assimp.Assimp.aiProcess_Triangulate;
+import static org.lwjgl.assimp.Assimp.aiReleaseImport;
+import static org.lwjgl.assimp.Assimp.aiReturn_FAILURE;
+import static org.lwjgl.assimp.Assimp.aiReturn_SUCCESS;
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_SHORT;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.system.MemoryUtil.memUTF8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.assimp.AIFace;
+import org.lwjgl.assimp.AIFile;
+import org.lwjgl.assimp.AIFileCloseProc;
+import org.lwjgl.assimp.AIFileFlushProc;
+import org.lwjgl.assimp.AIFileIO;
+import org.lwjgl.assimp.AIFileOpenProc;
+import org.lwjgl.assimp.AIFileReadProc;
+import org.lwjgl.assimp.AIFileSeek;
+import org.lwjgl.assimp.AIFileTellProc;
+import org.lwjgl.assimp.AIFileWriteProc;
+import org.lwjgl.assimp.AIMesh;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.AIVector3D;
+
+/**
+ * Imports the triangle meshes of a model file (OBJ, glTF, PLY and the other formats of Assimp) with compressed
+ * positions and normals (VertexFormat.POSITION_NORMAL_PACKED) and indices. Assimp reads the model and the files
+ * it references (e.g. the .mtl file of an OBJ or the .bin buffers of a glTF) through IOUtil.mapResource, so they
+ * are found next to the model on the file system or on the class path.
+ *
+ * The first import writes the welded meshes into a binary cache file in a cache directory (-Dogl.meshCache,
+ * empty to disable), keyed by a hash of the model file. Later loads map the cache file and pass slices of the
+ * mapping directly to glBufferData, so Assimp doesn't parse the file again. Only the model file is hashed, so
+ * changes of referenced files require clearing the cache. Loading doesn't call OpenGL and can run on any thread;
+ * the meshes are uploaded on the context thread.
+ *
+ * Cache layout in native byte order: magic, version, mesh count, then per mesh vertex count, index count,
+ * index type, bounding box and radius (7 floats), vertex offset and index offset, followed by the data.
+ */
+public final class ModelLoader {
+	private final static String DefaultDirectory = Paths.get(System.getProperty("user.home"), ".opengl-demo", "meshes").toString();
+	private final static int Magic = 0x4D4C474F;	// "OGLM" in little endian order
+	private final static int Version = 2;
+	private final static int HeaderSize = 3*4, MeshHeaderSize = 12*4;
+	private final static int ImportFlags = aiProcess_Triangulate | aiProcess_JoinIdenticalVertices | aiProcess_GenSmoothNormals
+		| aiProcess_PreTransformVertices | aiProcess_SortByPType | aiProcess_ImproveCacheLocality;
+
+	public final static VertexFormat FORMAT = VertexFormat.POSITION_NORMAL_PACKED;	// vertex layout of all loaded meshes
+
+	private ModelLoader() {
+	}
+
+	/**
+	 * The meshes of a loaded model in a mapped cache file or in off-heap memory, which are released by close.
+	 */
+	public static final class Model implements AutoCloseable {
+		private final ByteBuffer m_data;
+		private final IOUtil.Resource m_cache;	// null if the data has been allocated
+		private final boolean m_imported;
+
+		private Model(ByteBuffer data, IOUtil.Resource cache, boolean imported) {
+			m_data = data.order(ByteOrder.nativeOrder());
+			m_cache = cache;
+			m_imported = imported;
+		}
+
+		// true if the model has been parsed by Assimp, false if it has been loaded from the cache
+		public boolean isImported() {
+			return m_imported;
+		}
+
+		public int getMeshCount() {
+			return m_data.getInt(8);
+		}
+
+		public Bounds getBounds(int mesh) {
+			final int h = header(mesh);
+			if (m_data.getInt(h) == 0)
+				return null;
+			return new Bounds(
+				m_data.getFloat(h + 12), m_data.getFloat(h + 16), m_data.getFloat(h + 20),
+				m_data.getFloat(h + 24), m_data.getFloat(h + 28), m_data.getFloat(h + 32),
+				m_data.getFloat(h + 36)
+			);
+		}
+
+		// uploads a mesh into a new object with the given color, must be called on the thread owning the context
+		public OGLObject upload(int mesh, Color4D color) {
+			final int h = header(mesh);
+			final int vertexCount = m_data.getInt(h), indexCount = m_data.getInt(h + 4), indexType = m_data.getInt(h + 8);
+			final int vertexOffset = m_data.getInt(h + 40), indexOffset = m_data.getInt(h + 44);
+			final int indexSize = indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES;
+
+			ModelMesh object = new ModelMesh(color);
+			object.upload(
+				FORMAT,
+				m_data.slice(vertexOffset, vertexCount*FORMAT.getStride()),
+				m_data.slice(indexOffset, indexCount*indexSize),
+				indexType,
+				getBounds(mesh)
+			);
+			return object;
+		}
+
+		private int header(int mesh) {
+			if (mesh < 0 || mesh >= getMeshCount())
+				throw new IndexOutOfBoundsException(mesh);
+			return HeaderSize + mesh*MeshHeaderSize;
+		}
+
+		@Override
+		public void close() {
+			if (m_cache != null) {
+				m_cache.close();
+			} else {
+				memFree(m_data);
+			}
+		}
+	}
+
+	private static final class ModelMesh extends OGLObject {
+		ModelMesh(Color4D color) {
+			super(color);
+		}
+	}
+
+	/**
+	 * Loads the model from the cache if the cache has an entry for the contents of the resource, otherwise
+	 * imports it with Assimp and stores it in the cache.
+	 *
+	 * @param resource the file system path or class path name of the model, its extension selects the importer
+	 */
+	public static Model load(String resource) throws IOException {
+		String directory = System.getProperty("ogl.meshCache", DefaultDirectory);
+
+		try (IOUtil.Resource source = IOUtil.mapResource(resource)) {
+			Path file = directory.isEmpty() ? null : Paths.get(directory).resolve(key(source.data()));
+			if (file != null && Files.isReadable(file)) {
+				IOUtil.Resource cache = IOUtil.mapResource(file.toString());
+				ByteBuffer data = cache.data().order(ByteOrder.nativeOrder());
+				if (isValid(data)) {
+					return new Model(data, cache, false);
+				}
+				cache.close(); // e.g. truncated or written by another version, import again and replace it
+			}
+
+			ByteBuffer data = importModel(resource);
+			if (file != null) {
+				store(file, data);
+			}
+			return new Model(data, null, true);
+		}
+	}
+
+	// checks the header and that the data of all meshes lies within the cache file
+	private static boolean isValid(ByteBuffer data) {
+		final int size = data.capacity();
+		if (size < HeaderSize || data.getInt(0) != Magic || data.getInt(4) != Version)
+			return false;
+		final int meshCount = data.getInt(8);
+		final long dataOffset = HeaderSize + (long)meshCount*MeshHeaderSize;
+		if (meshCount < 0 || dataOffset > size)
+			return false;
+
+		for (int i = 0; i < meshCount; i++) {
+			final int h = HeaderSize + i*MeshHeaderSize;
+			final int vertexCount = data.getInt(h), indexCount = data.getInt(h + 4), indexType = data.getInt(h + 8);
+			final int vertexOffset = data.getInt(h + 40), indexOffset = data.getInt(h + 44);
+			if (indexType != GL_UNSIGNED_SHORT && indexType != GL_UNSIGNED_INT || vertexCount < 0 || indexCount < 0)
+				return false;
+			final int indexSize = indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES;
+			if (vertexOffset < dataOffset || vertexOffset + (long)vertexCount*FORMAT.getStride() > size)
+				return false;
+			if (indexOffset < dataOffset || indexOffset + (long)indexCount*indexSize > size)
+				return false;
+		}
+		return true;
+	}
+
+	// parses the model with Assimp and returns the contents of its cache file in off-heap memory
+	private static ByteBuffer importModel(String resource) throws IOException {
+		AIScene scene;
+		try (ResourceIO io = new ResourceIO()) {
+			scene = aiImportFileEx(resource, ImportFlags, io.m_io);
+		}
+		if (scene == null)
+			throw new IOException("Failed to import model: " + aiGetErrorString());
+
+		List<MeshBuilder> meshes = new ArrayList<>();
+		try {
+			for (int i = 0; i < scene.mNumMeshes(); i++) {
+				AIMesh mesh = AIMesh.create(scene.mMeshes().get(i));
+				if ((mesh.mPrimitiveTypes() & aiPrimitiveType_TRIANGLE) == 0 || mesh.mNormals() == null)
+					continue;
+				MeshBuilder builder = build(mesh);
+				if (builder.isIndexed()) {
+					meshes.add(builder);
+				} else {
+					builder.free(); // no triangles
+				}
+			}
+			return write(meshes);
+		} finally {
+			aiReleaseImport(scene);
+			for (MeshBuilder mesh : meshes) {
+				mesh.free();
+			}
+		}
+	}
+
+	// expands the triangles of the mesh, compresses them and welds them again into 16-bit or 32-bit indexed vertices
+	private static MeshBuilder build(AIMesh mesh) {
+		final AIVector3D.Buffer positions = mesh.mVertices(), normals = mesh.mNormals();
+		final AIFace.Buffer faces = mesh.mFaces();
+		MeshBuilder builder = new MeshBuilder(VertexFormat.POSITION_NORMAL, mesh.mNumFaces()*3);
+
+		for (int f = 0; f < mesh.mNumFaces(); f++) {
+			AIFace face = faces.get(f);
+			if (face.mNumIndices() != 3)
+				continue; // points and lines sorted into this mesh
+			for (int i = 0; i < 3; i++) {
+				int v = face.mIndices().get(i);
+				AIVector3D p = positions.get(v), n = normals.get(v);
+				builder.position(p.x(), p.y(), p.z()).normal(n.x(), n.y(), n.z()).endVertex();
+			}
+		}
+		if (builder.getVertexCount() == 0)
+			return builder;
+
+		MeshBuilder packed = builder.compress();
+		builder.free();
+		packed.weld();
+		return packed;
+	}
+
+	// lays out the header and the 4-byte aligned vertices and indices of all meshes in one buffer
+	private static ByteBuffer write(List<MeshBuilder> meshes) {
+		int size = HeaderSize + meshes.size()*MeshHeaderSize;
+		for (MeshBuilder mesh : meshes) {
+			size += mesh.getVertices().remaining() + align(mesh.getIndices().remaining());
+		}
+
+		ByteBuffer data = memAlloc(size).order(ByteOrder.nativeOrder());
+		data.putInt(0, Magic).putInt(4, Version).putInt(8, meshes.size());
+
+		int offset = HeaderSize + meshes.size()*MeshHeaderSize;
+		for (int i = 0; i < meshes.size(); i++) {
+			final MeshBuilder mesh = meshes.get(i);
+			final ByteBuffer vertices = mesh.getVertices(), indices = mesh.getIndices();
+			final Bounds bounds = mesh.getBounds();
+			final int h = HeaderSize + i*MeshHeaderSize;
+
+			data.putInt(h, mesh.getVertexCount()).putInt(h + 4, mesh.getIndexCount()).putInt(h + 8, mesh.getIndexType());
+			if (bounds != null) {
+				data.putFloat(h + 12, bounds.minX).putFloat(h + 16, bounds.minY).putFloat(h + 20, bounds.minZ)
+					.putFloat(h + 24, bounds.maxX).putFloat(h + 28, bounds.maxY).putFloat(h + 32, bounds.maxZ)
+					.putFloat(h + 36, bounds.radius);
+			}
+
+			data.putInt(h + 40, offset).put(offset, vertices, 0, vertices.remaining());
+			offset += vertices.remaining();
+			data.putInt(h + 44, offset).put(offset, indices, 0, indices.remaining());
+			offset += align(indices.remaining());
+		}
+		return data;
+	}
+
+	private static int align(int size) {
+		return (size + 3) & ~3;
+	}
+
+	// writes the cache file atomically, so concurrent loads never map a partially written file
+	private static void store(Path file, ByteBuffer data) {
+		try {
+			Files.createDirectories(file.getParent());
+			Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ByteBuffer contents = data.duplicate();
+				while (contents.hasRemaining()) {
+					fc.write(contents);
+				}
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Failed to cache model: " + e);
+		}
+	}
+
+	// SHA-256 of the model file and the import settings, as hex string
+	private static String key(ByteBuffer source) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update((Version + ":" + ImportFlags + ":" + ByteOrder.nativeOrder()).getBytes(StandardCharsets.UTF_8));
+			md.update(source);
+
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * File system of Assimp over IOUtil.mapResource. Assimp opens referenced files by their path relative to the
+	 * model, so they are resolved like the model, from the file system or from the class path.
+	 */
+	private static final class ResourceIO implements AutoCloseable {
+		private final Map<Long, IOUtil.Resource> m_files = new HashMap<>();	// open resources by AIFile address
+		private final Map<Long, ByteBuffer> m_positions = new HashMap<>();	// read positions by AIFile address
+		private final AIFileOpenProc m_open = AIFileOpenProc.create(this::open);
+		private final AIFileCloseProc m_close = AIFileCloseProc.create(this::close);
+		private final AIFileReadProc m_read = AIFileReadProc.create(this::read);
+		private final AIFileWriteProc m_write = AIFileWriteProc.create((file, buffer, size, count) -> 0);	// read-only
+		private final AIFileTellProc m_tell = AIFileTellProc.create(file -> m_positions.get(file).position());
+		private final AIFileTellProc m_size = AIFileTellProc.create(file -> m_positions.get(file).limit());
+		private final AIFileSeek m_seek = AIFileSeek.create(this::seek);
+		private final AIFileFlushProc m_flush = AIFileFlushProc.create(file -> {});
+		final AIFileIO m_io = AIFileIO.calloc().OpenProc(m_open).CloseProc(m_close);
+
+		private long open(long io, long fileName, long openMode) {
+			if (memUTF8(openMode).indexOf('w') >= 0)
+				return 0;
+			final IOUtil.Resource resource;
+			try {
+				resource = IOUtil.mapResource(memUTF8(fileName).replace('\\', '/'));
+			} catch (IOException | InvalidPathException e) {
+				return 0; // Assimp also probes for files that don't exist
+			}
+			AIFile file = AIFile.calloc()
+				.ReadProc(m_read).WriteProc(m_write).TellProc(m_tell).FileSizeProc(m_size).SeekProc(m_seek).FlushProc(m_flush);
+			m_files.put(file.address(), resource);
+			m_positions.put(file.address(), resource.data().duplicate());
+			return file.address();
+		}
+
+		private void close(long io, long file) {
+			m_files.remove(file).close();
+			m_positions.remove(file);
+			AIFile.create(file).free();
+		}
+
+		private long read(long file, long buffer, long size, long count) {
+			final ByteBuffer data = m_positions.get(file);
+			if (size == 0)
+				return 0;
+			final long n = Math.min(count, data.remaining()/size);
+			memCopy(memAddress(data), buffer, n*size);
+			data.position(data.position() + (int)(n*size));
+			return n;
+		}
+
+		private int seek(long file, long offset, int origin) {
+			final ByteBuffer data = m_positions.get(file);
+			final long base = origin == aiOrigin_SET ? 0 : origin == aiOrigin_CUR ? data.position() : origin == aiOrigin_END ? data.limit() : -1;
+			if (base < 0 || base + offset < 0 || base + offset > data.limit())
+				return aiReturn_FAILURE;
+			data.position((int)(base + offset));
+			return aiReturn_SUCCESS;
+		}
+
+		// closes the files Assimp left open and frees the callbacks, after the import has returned
+		@Override
+		public void close() {
+			for (long file : new ArrayList<>(m_files.keySet())) {
+				close(m_io.address(), file);
+			}
+			m_io.free();
+			m_open.free();
+			m_close.free();
+			m_read.free();
+			m_write.free();
+			m_tell.free();
+			m_size.free();
+			m_seek.free();
+			m_flush.free();
+		}
+	}
+}
@@ -3,8 +3,14 @@ package org.lwjgl.demo.util;
 // https://javadoc.lwjgl.org/index.html?org/lwjgl/opengl/GL30.html
 
 import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
+import static org.lwjgl.glfw.GLFW.GLFW_CONTEXT_CREATION_API;
+import static org.lwjgl.glfw.GLFW.GLFW_EGL_CONTEXT_API;
 import static org.lwjgl.glfw.GLFW.GLFW_FALSE;
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_ESCAPE;
+import static org.lwjgl.glfw.GLFW.GLFW_NATIVE_CONTEXT_API;
+import static org.lwjgl.glfw.GLFW.GLFW_OSMESA_CONTEXT_API;
+import static org.lwjgl.glfw.GLFW.GLFW_PLATFORM;
+import static org.lwjgl.glfw.GLFW.GLFW_PLATFORM_NULL;
 import static org.lwjgl.glfw.GLFW.GLFW_RELEASE;
 import static org.lwjgl.glfw.GLFW.GLFW_RESIZABLE;
 import static org.lwjgl.glfw.GLFW.GLFW_TRUE;
@@ -16,7 +22,9 @@ import static org.lwjgl.glfw.GLFW.glfwGetPrimaryMonitor;
 import static org.lwjgl.glfw.GLFW.glfwGetVideoMode;
 import static org.lwjgl.glfw.GLFW.glfwGetWindowSize;
 import static org.lwjgl.glfw.GLFW.glfwInit;
+import static org.lwjgl.glfw.GLFW.glfwInitHint;
 import static org.lwjgl.glfw.GLFW.glfwMakeContextCurrent;
+import static org.lwjgl.glfw.GLFW.glfwPlatformSupported;
 import static org.lwjgl.glfw.GLFW.glfwPollEvents;
 import static org.lwjgl.glfw.GLFW.glfwSetErrorCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetKeyCallback;
@@ -35,12 +43,14 @@ import static org.lwjgl.opengl.GL11.glClearColor;
 import static org.lwjgl.opengl.GL11C.GL_RENDERER;
 import static org.lwjgl.opengl.GL11C.GL_VENDOR;
 import static org.lwjgl.opengl.GL11C.GL_VERSION;
+import static org.lwjgl.opengl.GL11C.glFinish;
 import static org.lwjgl.opengl.GL11C.glGetString;
 import static org.lwjgl.opengl.GL20C.GL_SHADING_LANGUAGE_VERSION;
 import static org.lwjgl.system.MemoryStack.stackPush;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 import java.nio.IntBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.lwjgl.Version;
 import org.lwjgl.glfw.GLFWErrorCallback;
@@ -48,9 +58,33 @@ import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.system.MemoryStack;
 
+/**
+ * Runs a model in a window. With -Dogl.headless=true the model is rendered into an offscreen frame buffer
+ * of a hidden window instead, without v-sync, until -Dogl.frames frames have been rendered or -Dogl.seconds
+ * have elapsed; a throughput summary is printed at the end. On machines without a display GLFW uses its
+ * null platform and the context is created by -Dogl.context=osmesa (default), egl or native.
+ * Frame time percentiles are printed every -Dogl.statsInterval seconds (default 5).
+ * The model is updated with a fixed time step of 1/-Dogl.updateRate seconds (default 60 Hz), independent of
+ * the frame rate, and renders the state interpolated between the last two updates.
+ * With -Dogl.pipelined=true a dedicated render thread owns the context and submits frame N, while the main
+ * thread polls events and simulates frame N+1 into the other slot of the model's double-buffered snapshot.
+ * Input reaches the simulation through a lock-free queue (see post) in both modes.
+ */
 public class OGLApp<M extends OGLModel> {
 	private long m_window;	// The window handle
 	private M m_model;		// the model
+	private final boolean m_headless = Boolean.getBoolean("ogl.headless");
+	private Framebuffer m_offscreen;	// render target in headless mode
+	private FrameStats m_frameStats;	// frame times of the render loop
+	private final static double MaxFrameTime = 0.25;	// seconds of simulation caught up at most per frame
+	private final double m_timeStep = 1/Double.parseDouble(System.getProperty("ogl.updateRate", "60")); // seconds
+	private long m_previousTime;	// nanoseconds, time of the previous frame
+	private double m_lag;			// seconds of real time not yet simulated
+	private final boolean m_pipelined = Boolean.getBoolean("ogl.pipelined");
+	private final ConcurrentLinkedQueue<Runnable> m_input = new ConcurrentLinkedQueue<>(); // lock-free
+	private final long m_reportInterval = (long)(Double.parseDouble(System.getProperty("ogl.statsInterval", "5"))*1e9);
+	private long m_nextReport;		// nanoseconds
+	private final ContextExecutor m_contextExecutor = new ContextExecutor(); // tasks needing the OpenGL context
 	
 	protected org.lwjgl.glfw.GLFWKeyCallbackI m_keyCallback = (window, key, scancode, action, mods) -> {
 		if ( key == GLFW_KEY_ESCAPE && action == GLFW_RELEASE )
@@ -60,6 +94,16 @@ public class OGLApp<M extends OGLModel> {
 	public OGLApp(M model) {
 		m_model = model;
 	}
+
+	// queues an input action, e.g. of a key callback, that is applied on the simulation thread before the next update
+	protected void post(Runnable action) {
+		m_input.add(action);
+	}
+
+	// valid after the OpenGL context has been created
+	public FrameStats getFrameStats() {
+		return m_frameStats;
+	}
 	
 	public void run(String title, int width, int height, Color4D bkgColor) {
 		System.out.println(title + " " + Version.getVersion() + "!");
@@ -82,6 +126,9 @@ public class OGLApp<M extends OGLModel> {
 		GLFWErrorCallback.createPrint(System.err).set();
 
 		// Initialize GLFW. Most GLFW functions will not work before doing this.
+		boolean surfaceless = m_headless && System.getenv("DISPLAY") == null && System.getenv("WAYLAND_DISPLAY") == null;
+		if ( surfaceless && glfwPlatformSupported(GLFW_PLATFORM_NULL) )
+			glfwInitHint(GLFW_PLATFORM, GLFW_PLATFORM_NULL); // no window system at all
 		if ( !glfwInit() )
 			throw new IllegalStateException("Unable to initialize GLFW");
 
@@ -89,6 +136,8 @@ public class OGLApp<M extends OGLModel> {
 		glfwDefaultWindowHints(); // optional, the current window hints are already the default
 		glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE); // the window will stay hidden after creation
 		glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE); // the window will be resizable
+		if ( m_headless )
+			glfwWindowHint(GLFW_CONTEXT_CREATION_API, contextCreationAPI(surfaceless));
 
 		// Create the window
 		m_window = glfwCreateWindow(width, height, title, NULL, NULL);
@@ -98,30 +147,33 @@ public class OGLApp<M extends OGLModel> {
 		// Setup a key callback. It will be called every time a key is pressed, repeated or released.
 		glfwSetKeyCallback(m_window, m_keyCallback);
 
-		// Get the thread stack and push a new frame
-		try ( MemoryStack stack = stackPush() ) {
-			IntBuffer pWidth = stack.mallocInt(1); // int*
-			IntBuffer pHeight = stack.mallocInt(1); // int*
+		// Center the visible window on the primary monitor
+		if ( !m_headless ) {
+			// Get the thread stack and push a new frame
+			try ( MemoryStack stack = stackPush() ) {
+				IntBuffer pWidth = stack.mallocInt(1); // int*
+				IntBuffer pHeight = stack.mallocInt(1); // int*
 
-			// Get the window size passed to glfwCreateWindow
-			glfwGetWindowSize(m_window, pWidth, pHeight);
+				// Get the window size passed to glfwCreateWindow
+				glfwGetWindowSize(m_window, pWidth, pHeight);
 
-			// Get the resolution of the primary monitor
-			GLFWVidMode vidmode = glfwGetVideoMode(glfwGetPrimaryMonitor());
+				// Get the resolution of the primary monitor
+				GLFWVidMode vidmode = glfwGetVideoMode(glfwGetPrimaryMonitor());
 
-			// Center the window
-			glfwSetWindowPos(
-				m_window,
-				(vidmode.width() - pWidth.get(0))/2,
-				(vidmode.height() - pHeight.get(0))/2
-			);
-		} // the stack frame is popped automatically
+				// Center the window
+				glfwSetWindowPos(
+					m_window,
+					(vidmode.width() - pWidth.get(0))/2,
+					(vidmode.height() - pHeight.get(0))/2
+				);
+			} // the stack frame is popped automatically
+		}
 
 		// Make the OpenGL context current
 		glfwMakeContextCurrent(m_window);
 		
-		// Enable v-sync
-		glfwSwapInterval(1);
+		// Enable v-sync, but measure the throughput in headless mode
+		glfwSwapInterval(m_headless ? 0 : 1);
 
 		// make capabilities available
 		GL.createCapabilities();
@@ -130,11 +182,31 @@ public class OGLApp<M extends OGLModel> {
         System.err.println("GL_VERSION : " + glGetString(GL_VERSION));
         System.err.println("GL_SHADER  : " + glGetString(GL_SHADING_LANGUAGE_VERSION));
 
+        m_frameStats = new FrameStats();
+
+        // render offscreen in headless mode
+        if (m_headless) {
+        	m_offscreen = new Framebuffer(width, height);
+        	m_offscreen.bind();
+        }
+
         // initialize model
+        m_model.setContextExecutor(m_contextExecutor);
         m_model.init(width, height);
         
 		// Make the window visible
-		glfwShowWindow(m_window);
+		if ( !m_headless )
+			glfwShowWindow(m_window);
+	}
+
+	private static int contextCreationAPI(boolean surfaceless) {
+		String api = System.getProperty("ogl.context", surfaceless ? "osmesa" : "native");
+		switch (api) {
+		case "osmesa": return GLFW_OSMESA_CONTEXT_API;
+		case "egl": return GLFW_EGL_CONTEXT_API;
+		case "native": return GLFW_NATIVE_CONTEXT_API;
+		default: throw new IllegalArgumentException("Unknown context creation API: " + api);
+		}
 	}
 
 	private void loop(Color4D bkgColor) {
@@ -148,19 +220,153 @@ public class OGLApp<M extends OGLModel> {
 		// Set the clear color
 		glClearColor(bkgColor.r, bkgColor.g, bkgColor.b, bkgColor.a);
 
+		m_previousTime = System.nanoTime();
+
+		if ( m_headless ) {
+			loopHeadless();
+			return;
+		}
+
+		m_nextReport = System.nanoTime() + m_reportInterval;
+
+		if ( m_pipelined ) {
+			loopPipelined();
+			return;
+		}
+
 		// Run the rendering loop until the user has attempted to close
 		// the window or has pressed the ESCAPE key.
 		while ( !glfwWindowShouldClose(m_window) ) {
-			glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT); // clear the frame buffer
+			double alpha = simulate(); // update model
+			m_model.publish(0);
+			m_model.present(0);
 
-			m_model.render(); // render model
+			renderFrame(alpha); // render model
 
 			glfwSwapBuffers(m_window); // swap the color buffers
 
 			// Poll for window events. The key callback above will only be
 			// invoked during this call.
 			glfwPollEvents();
+
+			reportFrameStats();
 		}
+		m_frameStats.free();
 	}
-}
 
+	// the main thread polls events and simulates frame N+1 while the render thread submits frame N
+	private void loopPipelined() {
+		final FramePipeline pipeline = new FramePipeline();
+
+		glfwMakeContextCurrent(NULL); // the render thread owns the context from now on
+		Thread renderThread = new Thread(() -> renderLoop(pipeline), "Render");
+		renderThread.start();
+
+		while ( !glfwWindowShouldClose(m_window) && !pipeline.isClosed() ) {
+			glfwPollEvents(); // must be called on the main thread
+
+			double alpha = simulate();
+			int slot = pipeline.beginWrite(); // waits while the render thread is more than one frame behind
+			m_model.publish(slot);
+			pipeline.endWrite(alpha);
+		}
+		pipeline.close();
+
+		try {
+			renderThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void renderLoop(FramePipeline pipeline) {
+		glfwMakeContextCurrent(m_window);
+		GL.createCapabilities();
+		try {
+			for (int slot; (slot = pipeline.beginRead()) >= 0; ) {
+				m_model.present(slot);
+				renderFrame(pipeline.getAlpha(slot));
+				glfwSwapBuffers(m_window); // swap the color buffers
+				pipeline.endRead();
+
+				reportFrameStats();
+			}
+			m_frameStats.free();
+		} finally {
+			pipeline.close(); // stops the main loop if rendering has failed
+			glfwMakeContextCurrent(NULL);
+		}
+	}
+
+	// submits one frame on the thread owning the context
+	private void renderFrame(double alpha) {
+		m_frameStats.beginFrame();
+
+		m_contextExecutor.drain(); // e.g. upload meshes built on worker threads
+
+		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT); // clear the frame buffer
+
+		m_model.render(alpha); // render model
+
+		m_frameStats.endFrame();
+	}
+
+	// frame time statistics are printed every few seconds
+	private void reportFrameStats() {
+		if ( System.nanoTime() >= m_nextReport ) {
+			System.out.println(m_frameStats.report());
+			m_frameStats.reset();
+			m_nextReport += m_reportInterval;
+		}
+	}
+
+	// applies the queued input and runs the fixed time steps of this frame
+	private double simulate() {
+		for (Runnable action; (action = m_input.poll()) != null; ) {
+			action.run();
+		}
+		return advance();
+	}
+
+	// runs as many fixed time steps as real time has elapsed since the previous frame and returns the
+	// interpolation factor between the last two updates
+	private double advance() {
+		long now = System.nanoTime();
+		m_lag += Math.min((now - m_previousTime)/1e9, MaxFrameTime); // don't try to catch up after long stalls
+		m_previousTime = now;
+
+		while ( m_lag >= m_timeStep ) {
+			m_model.update(m_timeStep);
+			m_lag -= m_timeStep;
+		}
+		return m_lag/m_timeStep;
+	}
+
+	// renders a fixed number of frames or seconds as fast as possible and prints a summary
+	private void loopHeadless() {
+		final int maxFrames = Integer.getInteger("ogl.frames", 1000);
+		final double maxSeconds = Double.parseDouble(System.getProperty("ogl.seconds", "0")); // 0: no time limit
+		final long start = System.nanoTime();
+		final long end = maxSeconds > 0 ? start + (long)(maxSeconds*1e9) : Long.MAX_VALUE;
+		int frames = 0;
+
+		while ( frames < maxFrames && System.nanoTime() < end && !glfwWindowShouldClose(m_window) ) {
+			double alpha = simulate(); // update model
+			m_model.publish(0);
+			m_model.present(0);
+
+			renderFrame(alpha); // render model into the offscreen frame buffer
+
+			glfwPollEvents();
+			frames++;
+		}
+		glFinish(); // include the queued GPU work in the measured time
+
+		double seconds = (System.nanoTime() - start)/1e9;
+		System.out.printf("%d frames (%dx%d) in %.3f s: %.1f fps, %.3f ms/frame%n",
+			frames, m_offscreen.getWidth(), m_offscreen.getHeight(), seconds, frames/seconds, 1000*seconds/Math.max(frames, 1));
+		System.out.println(m_frameStats.report());
+		m_frameStats.free();
+		m_offscreen.free();
+	}
+}
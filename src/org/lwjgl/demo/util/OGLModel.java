@@ -1,6 +1,23 @@
 package org.lwjgl.demo.util;
 
+import java.util.concurrent.Executor;
+
 public interface OGLModel {
 	public void init(int width, int height);
-	public void render();
+
+	// advances the simulation by the fixed time step dt in seconds, called zero or more times per frame
+	public default void update(double dt) {}
+
+	// copies the simulated state that render reads into the snapshot slot 0 or 1; called on the simulation
+	// thread after the updates of a frame, while the render thread may be rendering the other slot
+	public default void publish(int slot) {}
+
+	// selects the snapshot slot read by the following render calls; called on the render thread
+	public default void present(int slot) {}
+
+	// renders the state interpolated between the previous (alpha = 0) and the current (alpha = 1) update
+	public void render(double alpha);
+
+	// called before init with the executor running tasks on the thread owning the OpenGL context
+	public default void setContextExecutor(Executor executor) {}
 }
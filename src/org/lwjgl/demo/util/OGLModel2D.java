@@ -1,32 +1,159 @@
 package org.lwjgl.demo.util;
 
-//https://javadoc.lwjgl.org/index.html?org/lwjgl/opengl/GL11.html
+// https://javadoc.lwjgl.org/index.html?org/lwjgl/opengl/GL30.html
 
-import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
-import static org.lwjgl.opengl.GL11.GL_MODELVIEW;
-import static org.lwjgl.opengl.GL11.GL_PROJECTION;
-import static org.lwjgl.opengl.GL11.glClear;
-import static org.lwjgl.opengl.GL11.glLoadIdentity;
-import static org.lwjgl.opengl.GL11.glMatrixMode;
-import static org.lwjgl.opengl.GL11.glOrtho;
-import static org.lwjgl.opengl.GL11.glViewport;
+import static org.lwjgl.demo.util.IOUtil.mapResource;
+import static org.lwjgl.opengl.GL11C.GL_LINES;
+import static org.lwjgl.opengl.GL11C.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11C.glDrawArrays;
+import static org.lwjgl.opengl.GL11C.glViewport;
+import static org.lwjgl.opengl.GL15C.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15C.glBindBuffer;
+import static org.lwjgl.opengl.GL20C.glGetUniformLocation;
+import static org.lwjgl.opengl.GL20C.glUniformMatrix4fv;
+import static org.lwjgl.opengl.GL20C.glUseProgram;
+import static org.lwjgl.opengl.GL30C.glBindVertexArray;
+import static org.lwjgl.opengl.GL30C.glGenVertexArrays;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.joml.Matrix3x2f;
+import org.joml.Matrix4f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryStack;
+
+/**
+ * Base class of 2D models drawn with a batch renderer. Lines, triangles and quads are transformed by M on the
+ * CPU and appended with their vertex colors to a batch, which is streamed into a vertex buffer and drawn with
+ * one draw call when the model calls flush, when the batch is full or when the primitive type changes between
+ * lines and triangles (quads are split into two triangles). The orthographic projection is applied by the shader.
+ */
 abstract public class OGLModel2D implements OGLModel {
+	public final static int BATCH_CAPACITY = 1 << 15;	// vertices per draw call
+	private final static boolean LittleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+	protected int m_PROGRAM;			// OpenGL program identifier
+	protected final Matrix3x2f M = new Matrix3x2f();	// model transform applied to the following primitives
+
+	private final VertexFormat m_format = VertexFormat.POSITION2_COLOR;
+	private final ByteBuffer m_batch = memAlloc(BATCH_CAPACITY*m_format.getStride());	// vertices of the current batch
+	private int m_VAO;
+	private StreamBuffer m_stream;		// vertices of the flushed batches
+	private int m_mode = GL_TRIANGLES;	// primitive type of the current batch
+	private int m_count;				// vertices in the current batch
+
 	@Override
 	public void init(int width, int height) {
-        final float ratio = width/(float)height;
+		if (!GL.getCapabilities().OpenGL33) {
+			throw new IllegalStateException("This demo requires OpenGL 3.3 or higher.");
+		}
+
+		// compile shaders
+		try (
+			IOUtil.Resource vs = mapResource("batch2d.vert");
+			IOUtil.Resource fs = mapResource("batch2d.frag")
+		) {
+			ProgramCache programs = new ProgramCache();
+			m_PROGRAM = programs.end(programs.begin(330, "", vs.data(), fs.data()));
+			glUseProgram(m_PROGRAM);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 
-        /* Set viewport and clear screen */
-        glViewport(0, 0, width, height);
-        glClear(GL_COLOR_BUFFER_BIT);
+		// the VAO records the attribute pointers into the stream buffer once, each flush draws from its own offset
+		m_stream = new StreamBuffer(GL_ARRAY_BUFFER, 4*m_batch.capacity());
+		m_VAO = glGenVertexArrays();
+		glBindVertexArray(m_VAO);
+		glBindBuffer(GL_ARRAY_BUFFER, m_stream.getBuffer());
+		m_format.setup();
 
-        /* Set orthographic projection */
-        glMatrixMode(GL_PROJECTION);				// choose projection matrix
-        glLoadIdentity();							// set projection matrix to identity
-        glOrtho(-ratio, ratio, -1f, 1f, 1f, -1f);	// set parallel projection
-        glMatrixMode(GL_MODELVIEW);					// choose model view matrix
+		setSize(width, height);
 	}
 
 	@Override
-	abstract public void render();
+	abstract public void render(double alpha);
+
+	protected void setSize(int width, int height) {
+		final float ratio = width/(float)height;
+
+		glViewport(0, 0, width, height);
+		try (MemoryStack stack = stackPush()) {
+			Matrix4f P = new Matrix4f().setOrtho(-ratio, ratio, -1f, 1f, 1f, -1f);	// parallel projection
+			glUniformMatrix4fv(glGetUniformLocation(m_PROGRAM, "u_P"), false, P.get(stack.mallocFloat(16)));
+		}
+	}
+
+	// packs a color into the byte order of the COLOR attribute
+	public static int rgba(float r, float g, float b, float a) {
+		int c = (int)(r*255 + 0.5f) | (int)(g*255 + 0.5f) << 8 | (int)(b*255 + 0.5f) << 16 | (int)(a*255 + 0.5f) << 24;
+		return LittleEndian ? c : Integer.reverseBytes(c);
+	}
+
+	public static int rgb(float r, float g, float b) {
+		return rgba(r, g, b, 1f);
+	}
+
+	protected void line(float x0, float y0, int c0, float x1, float y1, int c1) {
+		reserve(GL_LINES, 2);
+		vertex(x0, y0, c0);
+		vertex(x1, y1, c1);
+	}
+
+	// counterclockwise corners
+	protected void triangle(float x0, float y0, int c0, float x1, float y1, int c1, float x2, float y2, int c2) {
+		reserve(GL_TRIANGLES, 3);
+		vertex(x0, y0, c0);
+		vertex(x1, y1, c1);
+		vertex(x2, y2, c2);
+	}
+
+	// counterclockwise corners
+	protected void quad(float x0, float y0, int c0, float x1, float y1, int c1, float x2, float y2, int c2, float x3, float y3, int c3) {
+		reserve(GL_TRIANGLES, 6);
+		vertex(x0, y0, c0);
+		vertex(x1, y1, c1);
+		vertex(x2, y2, c2);
+		vertex(x0, y0, c0);
+		vertex(x2, y2, c2);
+		vertex(x3, y3, c3);
+	}
+
+	// axis-aligned rectangle in model space with one color
+	protected void rect(float x, float y, float width, float height, int color) {
+		quad(x, y, color, x + width, y, color, x + width, y + height, color, x, y + height, color);
+	}
+
+	// flushes the current batch if the next primitive can't be appended to it
+	private void reserve(int mode, int vertices) {
+		if (mode != m_mode || m_count + vertices > BATCH_CAPACITY) {
+			flush();
+			m_mode = mode;
+		}
+		m_count += vertices;
+	}
+
+	private void vertex(float x, float y, int color) {
+		m_batch
+			.putFloat(M.m00()*x + M.m10()*y + M.m20())
+			.putFloat(M.m01()*x + M.m11()*y + M.m21())
+			.putInt(color);
+	}
+
+	// draws the current batch with one draw call and starts a new one
+	protected void flush() {
+		if (m_count == 0)
+			return;
+
+		final int stride = m_format.getStride();
+		int offset = m_stream.write(m_batch.flip(), stride); // aligned to whole vertices, so the offset is a first vertex
+		glBindVertexArray(m_VAO);
+		glDrawArrays(m_mode, offset/stride, m_count);
+
+		m_batch.clear();
+		m_count = 0;
+	}
 }
@@ -2,52 +2,55 @@ package org.lwjgl.demo.util;
 
 // https://javadoc.lwjgl.org/index.html?org/lwjgl/opengl/GL30.html
 	
-import static org.lwjgl.demo.util.IOUtil.ioResourceToByteBuffer;
+import static org.lwjgl.demo.util.IOUtil.mapResource;
+import static org.lwjgl.opengl.GL11C.GL_BLEND;
 import static org.lwjgl.opengl.GL11C.GL_CULL_FACE;
 import static org.lwjgl.opengl.GL11C.GL_DEPTH_TEST;
-import static org.lwjgl.opengl.GL11C.GL_TRUE;
+import static org.lwjgl.opengl.GL11C.GL_ONE_MINUS_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11C.GL_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11C.glBlendFunc;
+import static org.lwjgl.opengl.GL11C.glDepthMask;
+import static org.lwjgl.opengl.GL11C.glDisable;
 import static org.lwjgl.opengl.GL11C.glEnable;
 import static org.lwjgl.opengl.GL11C.glViewport;
-import static org.lwjgl.opengl.GL20C.GL_COMPILE_STATUS;
-import static org.lwjgl.opengl.GL20C.GL_FRAGMENT_SHADER;
-import static org.lwjgl.opengl.GL20C.GL_INFO_LOG_LENGTH;
-import static org.lwjgl.opengl.GL20C.GL_LINK_STATUS;
-import static org.lwjgl.opengl.GL20C.GL_VERTEX_SHADER;
-import static org.lwjgl.opengl.GL20C.glAttachShader;
-import static org.lwjgl.opengl.GL20C.glCompileShader;
-import static org.lwjgl.opengl.GL20C.glCreateProgram;
-import static org.lwjgl.opengl.GL20C.glCreateShader;
-import static org.lwjgl.opengl.GL20C.glGetAttribLocation;
-import static org.lwjgl.opengl.GL20C.glGetProgramInfoLog;
-import static org.lwjgl.opengl.GL20C.glGetProgrami;
-import static org.lwjgl.opengl.GL20C.glGetShaderInfoLog;
-import static org.lwjgl.opengl.GL20C.glGetShaderi;
-import static org.lwjgl.opengl.GL20C.glGetUniformLocation;
-import static org.lwjgl.opengl.GL20C.glLinkProgram;
-import static org.lwjgl.opengl.GL20C.glShaderSource;
 import static org.lwjgl.opengl.GL20C.glUseProgram;
-import static org.lwjgl.opengl.GL30C.glBindVertexArray;
-import static org.lwjgl.opengl.GL30C.glGenVertexArrays;
-import static org.lwjgl.system.MemoryStack.stackPush;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.Executor;
 
+import org.joml.Matrix3d;
 import org.joml.Matrix4d;
 import org.joml.Matrix4x3d;
+import org.joml.Matrix4x3dc;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GLCapabilities;
-import org.lwjgl.system.MemoryStack;
 
 public abstract class OGLModel3D implements OGLModel {
-    protected int m_PROGRAM;	// OpenGL attribute identifiers
-    protected int m_POSITIONS;
-    protected int m_NORMALS;
-    
-    protected int u_VM;			// OpenGL uniform identifiers
-    protected int u_PVM;
-    protected int u_LIGHT;
-    protected int u_COLOR;
+    public final static int CAMERA_BINDING = 0;	// uniform block binding points
+    public final static int OBJECT_BINDING = 1;
+    public final static double NEAR = 5.0, FAR = 100.0;	// view distances of the near and far clipping planes
+
+    // shader variants of shader1, combined into an index of m_programs
+    protected final static int INSTANCED = 1;		// per-instance model transforms and colors
+    protected final static int OIT = 2;				// writes into the OIT targets
+    protected final static int VERTEX_COLOR = 4;	// per-vertex colors modulated by the object color
+
+    protected int m_PROGRAM;			// OpenGL program identifier
+    protected final int[] m_programs = new int[8];	// all variants, 0 until compiled
+    private ProgramCache m_programCache;
+
+    protected UniformBuffer m_camera;	// per-frame block: P, V, light (shared by all programs)
+    protected UniformRing m_objects;	// per-object blocks: PVM, VM normal matrix, color
+
+    protected OITBuffer m_oit;			// order-independent transparency, null: transparent packets are sorted
+    protected Executor m_contextExecutor;	// runs tasks on the thread owning the OpenGL context
+    protected final RenderQueue m_queue = new RenderQueue(FAR, 64);	// draw packets of the current frame
+    protected final FrustumCuller m_culler = new FrustumCuller(64);	// world space bounding spheres of the packets
+    protected int m_cameraVersion;		// changes whenever P or V change, invalidates the cached matrices of scene nodes
 
     protected final Matrix4d
         P   = new Matrix4d(),
@@ -57,10 +60,22 @@ public abstract class OGLModel3D implements OGLModel {
         M   = new Matrix4x3d(),
         VM  = new Matrix4x3d();	// View*Model transform used for normals
 
+    private final Matrix4d m_v4d = new Matrix4d();
+    private final Matrix4d m_pv = new Matrix4d();
+    private final Matrix4x3d m_identity = new Matrix4x3d();
+    private final Matrix4d m_prevP = new Matrix4d();		// camera of the previous updateCamera
+    private final Matrix4x3d m_prevV = new Matrix4x3d();
+    private final Matrix3d m_vm = new Matrix3d();
+    private final Vector3d m_origin = new Vector3d();
+    private final Vector3d m_center = new Vector3d();
+    private final Matrix4x3d m_model = new Matrix4x3d();	// M with the dequantization of the mesh
+    private final Matrix4d m_pvm = new Matrix4d();
+    private int m_width, m_height;
+
 	public void init(int width, int height) {
         GLCapabilities caps = GL.getCapabilities();
-        if (!caps.OpenGL30) {
-            throw new IllegalStateException("This demo requires OpenGL 3.0 or higher.");
+        if (!caps.OpenGL33) {
+            throw new IllegalStateException("This demo requires OpenGL 3.3 or higher.");
         }
 
         glEnable(GL_CULL_FACE);
@@ -68,109 +83,316 @@ public abstract class OGLModel3D implements OGLModel {
 
         setSize(width, height);
 
-        // compile shaders
-        try {
-            ByteBuffer vs = ioResourceToByteBuffer("shader1.vert", 4096);
-            ByteBuffer fs = ioResourceToByteBuffer("shader1.frag", 4096);
+        // uniform blocks: std140 sizes of Camera and Object in shader1.vert
+        m_camera = new UniformBuffer(CAMERA_BINDING, 64 + 64 + 16);
+        m_objects = new UniformRing(OBJECT_BINDING, 64 + 48 + 16, 1024);
 
-            int version;
-            if (caps.OpenGL33) {
-                version = 330;
-            } else if (caps.OpenGL21) {
-                version = 210;
-            } else {
-                version = 110;
-            }
+        // compile the declared shader variants
+        m_programCache = new ProgramCache();
+        compile(getShaderVariants());
+        m_PROGRAM = variant(0);
+        glUseProgram(m_PROGRAM);
+	}
+	
+	abstract public void render(double alpha);
 
-            m_PROGRAM = compileShaders(version, vs, fs);
+    /**
+     * The shader variants compiled in parallel by init, by default only the plain variant. Models declare the
+     * variants they draw with, e.g. OIT or VERTEX_COLOR; any other variant is compiled when it's first used.
+     */
+    protected int[] getShaderVariants() {
+        return new int[] { 0 };
+    }
+
+    // compiles the variants which haven't been compiled yet in parallel and attaches the uniform blocks
+    private void compile(int... variants) {
+        try (
+            IOUtil.Resource vsResource = mapResource("shader1.vert");
+            IOUtil.Resource fsResource = mapResource("shader1.frag")
+        ) {
+            ByteBuffer vs = vsResource.data(); // glShaderSource copies the source, so the resources can be released afterwards
+            ByteBuffer fs = fsResource.data();
+
+            int[] begun = new int[variants.length];
+            for (int i = 0; i < variants.length; i++) {
+                if (m_programs[variants[i]] == 0 && ((variants[i] & OIT) == 0 || OITBuffer.isSupported()))
+                    begun[i] = m_programCache.begin(330, defines(variants[i]), vs, fs); // all variants compile in parallel
+            }
+            for (int i = 0; i < variants.length; i++) {
+                if (begun[i] == 0)
+                    continue;
+                m_programs[variants[i]] = m_programCache.end(begun[i]);
+                m_camera.attach(begun[i], "Camera");
+                m_objects.attach(begun[i], "Object");
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
 
-        // define shader uniform locations
-        u_PVM = glGetUniformLocation(m_PROGRAM, "u_PVM");
-        u_VM = glGetUniformLocation(m_PROGRAM, "u_VM");
-        u_LIGHT = glGetUniformLocation(m_PROGRAM, "u_LIGHT");
-        u_COLOR = glGetUniformLocation(m_PROGRAM, "u_COLOR");
+    private int variant(int flags) {
+        if (m_programs[flags] == 0)
+            compile(flags);
+        return m_programs[flags];
+    }
+
+    private static String defines(int variant) {
+        return ((variant & INSTANCED) != 0 ? "#define INSTANCED\n" : "")
+            + ((variant & OIT) != 0 ? "#define OIT\n" : "")
+            + ((variant & VERTEX_COLOR) != 0 ? "#define VERTEX_COLOR\n" : "");
+    }
 
-        // define shader attribute locations
-        m_POSITIONS = glGetAttribLocation(m_PROGRAM, "in_Position");
-        m_NORMALS = glGetAttribLocation(m_PROGRAM, "in_Normal");
+    // the shader variant drawing the mesh, with OIT if the draw is transparent and OIT is enabled
+    protected int program(OGLObject mesh, boolean instanced, boolean transparent) {
+        return variant((instanced ? INSTANCED : 0)
+            | (transparent && m_oit != null ? OIT : 0)
+            | (mesh.hasVertexColors() ? VERTEX_COLOR : 0));
+    }
 
-        if (caps.OpenGL30) {
-            int vao = glGenVertexArrays();
-            glBindVertexArray(vao); // bind and forget
+    /**
+     * Selects how transparent packets are drawn: with weighted blended order-independent transparency in a
+     * single unsorted pass, or sorted back to front and blended over each other. Returns false if OIT has
+     * been requested, but isn't supported by the context.
+     */
+    protected boolean setOrderIndependentTransparency(boolean enabled) {
+        if (m_oit != null) {
+            m_oit.free();
+            m_oit = null;
         }
-	}
-	
-	abstract public void render();
-	
-    protected void setSize(int width, int height) {
-        float h = height/(float)width;
+        if (enabled && OITBuffer.isSupported()) {
+            m_oit = new OITBuffer(m_width, m_height);
+        }
+        return m_oit != null || !enabled;
+    }
 
-        glViewport(0, 0, width, height);
-        if (h < 1.0f) {
-            P.setFrustum(-1.0/h, 1.0/h, -1.0, 1.0, 5.0, 100.0);
+    @Override
+    public void setContextExecutor(Executor executor) {
+        m_contextExecutor = executor;
+    }
+
+    // writes P, V and the light direction (in view space) into the shared camera block and sets the
+    // frustum of the culler, once per frame
+    protected void updateCamera(Vector3d light) {
+        if (!P.equals(m_prevP) || !V.equals(m_prevV)) {
+            m_prevP.set(P);
+            m_prevV.set(V);
+            m_cameraVersion++;
+            m_culler.setFrustum(P.mul(V, m_pv));
+        }
+
+        ByteBuffer block = m_camera.getBlock();
+        UniformBuffer.putMat4(block, 0, P);
+        UniformBuffer.putMat4(block, 64, m_v4d.set(V));
+        UniformBuffer.putVec4(block, 128, (float)light.x, (float)light.y, (float)light.z, 0);
+        m_camera.upload();
+    }
+
+    // writes the transforms of the current M and the given color into the next per-object block
+    protected void updateObject(FloatBuffer color) {
+        updateObject(color.get(0), color.get(1), color.get(2), color.get(3));
+    }
+
+    protected void updateObject(float r, float g, float b, float a) {
+        ByteBuffer block = m_objects.getBlock();
+        V.mul(M, VM);
+        UniformBuffer.putMat4(block, 0, P.mul(VM, PVM));
+        UniformBuffer.putMat3(block, 64, VM.normal(m_vm));
+        UniformBuffer.putVec4(block, 112, r, g, b, a);
+        m_objects.push();
+    }
+
+    // writes the cached matrices of a scene node and the given color into the next per-object block
+    private void updateObject(SceneNode node, OGLObject mesh, float r, float g, float b, float a) {
+        ByteBuffer block = m_objects.getBlock();
+        node.updateView(P, V, m_cameraVersion);
+        Matrix4x3dc D = mesh.getDequantization();
+        UniformBuffer.putMat4(block, 0, D != null ? node.getPVM().mul(D, m_pvm) : node.getPVM());
+        UniformBuffer.putMat3(block, 64, node.getNormal()); // D scales uniformly, normals are normalized by the shader
+        UniformBuffer.putVec4(block, 112, r, g, b, a);
+        m_objects.push();
+    }
+
+    // queues a draw of the mesh with the current M and the color of the mesh
+    protected void submit(OGLObject mesh, int mode, boolean transparent) {
+        FloatBuffer color = mesh.getColor();
+        submit(mesh, mode, color.get(0), color.get(1), color.get(2), color.get(3), transparent);
+    }
+
+    // queues a draw of the mesh, or of its level of detail, with the current M and the given color
+    protected void submit(OGLObject mesh, int mode, float r, float g, float b, float a, boolean transparent) {
+        final Bounds bounds = mesh.getBounds();
+        OGLObject lod = mesh;
+        if (bounds != null && mesh.getLodCount() > 1) {
+            M.transformPosition(m_origin.set(bounds.centerX, bounds.centerY, bounds.centerZ));
+            lod = mesh.lod(projectedRadius(m_origin, bounds.radius*(float)Bounds.maxScale(M)));
+        }
+
+        final int program = program(lod, false, transparent);
+        final Matrix4x3dc D = lod.getDequantization();
+        final Matrix4x3dc model = D != null ? M.mul(D, m_model) : M; // quantized positions are mapped by M*D
+        if (transparent && m_oit != null) {
+            m_queue.submit(program, lod, mode, model, r, g, b, a, true, 0); // no depth order needed, group by program and mesh
         } else {
-            P.setFrustum(-1.0, 1.0, -h, h, 5.0, 100.0);
+            double depth = -V.transformPosition(m_origin.set(M.m30(), M.m31(), M.m32())).z; // view distance of the origin of M
+            m_queue.submit(program, lod, mode, model, r, g, b, a, transparent, depth);
         }
+        addBounds(bounds, M);
     }
 
-    private static int compileShaders(int version, ByteBuffer vs, ByteBuffer fs) {
-        int v = glCreateShader(GL_VERTEX_SHADER);
-        int f = glCreateShader(GL_FRAGMENT_SHADER);
+    // the radius in pixels of the projection of a world space sphere, infinite if the sphere reaches the camera
+    protected float projectedRadius(Vector3dc center, float radius) {
+        final double z = V.transformPosition(center, m_center).z;
+        final double w = P.m23()*z + P.m33(); // view distance for perspective projections, 1 for parallel ones
+        if (w <= -P.m23()*radius)
+            return Float.POSITIVE_INFINITY;
+        return (float)(radius*P.m11()*m_height*0.5/w);
+    }
 
-        compileShader(version, v, vs);
-        compileShader(version, f, fs);
+    // updates the world transforms of the changed nodes of the scene and queues the uploaded meshes of all its nodes
+    protected void submit(SceneNode scene) {
+        scene.update();
+        submitNode(scene);
+    }
 
-        int p = glCreateProgram();
-        glAttachShader(p, v);
-        glAttachShader(p, f);
-        glLinkProgram(p);
-        printProgramInfoLog(p);
+    private void submitNode(SceneNode node) {
+        OGLObject mesh = node.getMesh();
+        if (mesh != null && mesh.isUploaded()) {
+            Vector3d center = node.getWorldCenter(); // cached until the node moves
+            if (center != null && mesh.getLodCount() > 1) {
+                node.setLod(mesh.selectLod(node.getLod(), projectedRadius(center, node.getWorldRadius())));
+                mesh = mesh.getLod(node.getLod());
+            }
 
-        if (glGetProgrami(p, GL_LINK_STATUS) != GL_TRUE) {
-            throw new IllegalStateException("Failed to link program.");
+            final int program = program(mesh, false, node.isTransparent());
+            if (node.isTransparent() && m_oit != null) {
+                m_queue.submit(program, node, mesh, true, 0);
+            } else {
+                Matrix4x3dc world = node.getWorld();
+                double depth = -V.transformPosition(m_origin.set(world.m30(), world.m31(), world.m32())).z;
+                m_queue.submit(program, node, mesh, node.isTransparent(), depth);
+            }
+
+            if (center != null) {
+                m_culler.add((float)center.x, (float)center.y, (float)center.z, node.getWorldRadius());
+            } else {
+                m_culler.add(0, 0, 0, Float.POSITIVE_INFINITY);
+            }
         }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            submitNode(node.getChild(i));
+        }
+    }
 
-        glUseProgram(p);
-        return p;
+    // queues an instanced draw of all instances of the given buffer
+    protected void submitInstances(InstanceBuffer instances, int mode, boolean transparent) {
+        final int program = program(instances.getMesh(), true, transparent);
+        if (transparent && m_oit != null) {
+            m_queue.submit(program, instances, mode, true, 0);
+        } else {
+            m_queue.submit(program, instances, mode, transparent, -V.m32());
+        }
+        addBounds(instances.getBounds(), m_identity);
     }
 
-    private static void compileShader(int version, int shader, ByteBuffer code) {
-        try (MemoryStack stack = stackPush()) {
-            ByteBuffer header = stack.ASCII("#version " + version + "\n#line 0\n", false);
+    // adds the world space bounding sphere of the last submitted packet to the culler, packets without bounds are never culled
+    private void addBounds(Bounds bounds, Matrix4x3d model) {
+        if (bounds == null) {
+            m_culler.add(0, 0, 0, Float.POSITIVE_INFINITY);
+        } else {
+            model.transformPosition(m_origin.set(bounds.centerX, bounds.centerY, bounds.centerZ));
+            m_culler.add((float)m_origin.x, (float)m_origin.y, (float)m_origin.z, bounds.radius*(float)Bounds.maxScale(model));
+        }
+    }
 
-            glShaderSource(
-                shader,
-                stack.pointers(header, code),
-                stack.ints(header.remaining(), code.remaining())
-            );
+    // draws all queued packets inside the view frustum in the order of the render queue and clears it:
+    // program and mesh only change between packets that need different states,
+    // the transparent packets following all opaque packets are blended without writing depth
+    protected void flush() {
+        int program = m_PROGRAM;
+        OGLObject mesh = null;	// bound mesh
+        boolean transparent = false;
 
-            glCompileShader(shader);
-            printShaderInfoLog(shader);
+        if (m_culler.size() != m_queue.getPacketCount())
+            throw new IllegalStateException("Packets must be submitted with the submit methods of OGLModel3D");
+        m_culler.cull(); // one pass over all bounding spheres, culled packets are neither sorted nor drawn
+        m_queue.retain(m_culler.getVisible());
+        m_queue.sort();
+        for (int i = 0; i < m_queue.size(); i++) {
+            final int packet = m_queue.getPacket(i);
 
-            if (glGetShaderi(shader, GL_COMPILE_STATUS) != GL_TRUE) {
-                throw new IllegalStateException("Failed to compile shader.");
+            if (!transparent && m_queue.isTransparent(packet)) {
+                transparent = true;
+                beginTransparent();
+            }
+            if (m_queue.getProgram(packet) != program) {
+                program = m_queue.getProgram(packet);
+                glUseProgram(program);
+            }
+
+            InstanceBuffer instances = m_queue.getInstances(packet);
+            if (instances != null) {
+                instances.draw(m_queue.getMode(packet));
+                mesh = instances.getMesh();
+            } else {
+                if (m_queue.getMesh(packet) != mesh) {
+                    mesh = m_queue.getMesh(packet);
+                    mesh.bind();
+                }
+                SceneNode node = m_queue.getNode(packet);
+                if (node != null) {
+                    updateObject(node, mesh, m_queue.getColor(packet, 0), m_queue.getColor(packet, 1), m_queue.getColor(packet, 2), m_queue.getColor(packet, 3));
+                } else {
+                    m_queue.getTransform(packet, M);
+                    updateObject(m_queue.getColor(packet, 0), m_queue.getColor(packet, 1), m_queue.getColor(packet, 2), m_queue.getColor(packet, 3));
+                }
+                mesh.drawBound(m_queue.getMode(packet));
             }
         }
+        if (transparent) endTransparent();
+        if (program != m_PROGRAM || transparent) glUseProgram(m_PROGRAM);
+        m_queue.clear();
+        m_culler.clear();
     }
 
-    private static void printShaderInfoLog(int obj) {
-        int infologLength = glGetShaderi(obj, GL_INFO_LOG_LENGTH);
-        if (infologLength > 0) {
-            glGetShaderInfoLog(obj);
-            System.out.format("%s\n", glGetShaderInfoLog(obj));
+    // transparent packets don't occlude each other
+    private void beginTransparent() {
+        glDepthMask(false);
+        glEnable(GL_BLEND);
+        if (m_oit != null) {
+            m_oit.begin();
+        } else {
+            glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA); // sorted back to front
         }
     }
 
-    private static void printProgramInfoLog(int obj) {
-        int infologLength = glGetProgrami(obj, GL_INFO_LOG_LENGTH);
-        if (infologLength > 0) {
-            glGetProgramInfoLog(obj);
-            System.out.format("%s\n", glGetProgramInfoLog(obj));
+    private void endTransparent() {
+        if (m_oit != null) {
+            m_oit.end(); // composite pass
         }
+        glDisable(GL_BLEND);
+        glDepthMask(true);
     }
 
+    // draws all instances of the given buffer with the current camera block in one draw call
+    protected void drawInstances(InstanceBuffer instances, int mode) {
+        glUseProgram(program(instances.getMesh(), true, false));
+        instances.draw(mode);
+        glUseProgram(m_PROGRAM);
+    }
+	
+    protected void setSize(int width, int height) {
+        float h = height/(float)width;
 
+        m_width = width;
+        m_height = height;
+        glViewport(0, 0, width, height);
+        if (m_oit != null && (m_oit.getWidth() != width || m_oit.getHeight() != height)) {
+            setOrderIndependentTransparency(true); // reallocate the targets
+        }
+        if (h < 1.0f) {
+            P.setFrustum(-1.0/h, 1.0/h, -1.0, 1.0, NEAR, FAR);
+        } else {
+            P.setFrustum(-1.0, 1.0, -h, h, NEAR, FAR);
+        }
+    }
 }
@@ -1,83 +1,196 @@
 package org.lwjgl.demo.util;
 
-import static org.lwjgl.opengl.GL11C.GL_FLOAT;
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL11C.glDrawArrays;
+import static org.lwjgl.opengl.GL11C.glDrawElements;
 import static org.lwjgl.opengl.GL15C.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15C.GL_ELEMENT_ARRAY_BUFFER;
 import static org.lwjgl.opengl.GL15C.GL_STATIC_DRAW;
 import static org.lwjgl.opengl.GL15C.glBindBuffer;
 import static org.lwjgl.opengl.GL15C.glBufferData;
 import static org.lwjgl.opengl.GL15C.glGenBuffers;
-import static org.lwjgl.opengl.GL20C.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20C.glVertexAttribPointer;
-import static org.lwjgl.system.MemoryUtil.memAllocFloat;
-import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.opengl.GL30C.glBindVertexArray;
+import static org.lwjgl.opengl.GL30C.glGenVertexArrays;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 
+import org.joml.Matrix4x3d;
+import org.joml.Matrix4x3dc;
 import org.lwjgl.BufferUtils;
 
 abstract public class OGLObject {
-    protected final int m_POSITION_VBO;
-    protected final int m_NORMAL_VBO;
+    public final static float LOD_HYSTERESIS = 0.15f;	// relative margin around the switching radii, prevents flickering
+
+    protected int m_VAO;				// records the vertex layout of this object once, 0 until uploaded
+    protected int m_VBO;				// interleaved vertex attributes
+    protected int m_EBO;				// element indices, 0 if not indexed
     protected final FloatBuffer m_color;
-    protected FloatBuffer m_positions;
-    protected FloatBuffer m_normals;
+    protected MeshBuilder m_vertices;	// staging mesh of subclasses, only valid until bindVertexBuffer
     protected int m_vertexCount;
+    protected int m_indexCount;
+    protected int m_indexType;			// GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+    protected Bounds m_bounds;			// model space extent, null until uploaded
+    protected VertexFormat m_format;	// vertex layout, null until uploaded
+    protected Matrix4x3d m_dequantization;	// from quantized to model space positions, null if not quantized
+
+    // progressively coarser meshes; level i + 1 is drawn below m_lodRadii[i] pixels of projected radius
+    private OGLObject[] m_lods = new OGLObject[0];
+    private float[] m_lodRadii = new float[0];
+    private int m_lod;					// level of the last call of lod, shared by all direct draws of this object
 
     protected OGLObject(Color4D color) {
         m_color = BufferUtils.createFloatBuffer(4);
         m_color.put(color.toArray()).flip();
+    }
 
-        m_POSITION_VBO = glGenBuffers(); 	// generate one buffer object name
-        m_NORMAL_VBO = glGenBuffers();		// generate one buffer object name
+    public int getVertexCount() {
+    	return m_vertexCount;
     }
-    
-    public int getVertexCount() { 
-    	return m_vertexCount; 
+
+    public FloatBuffer getColor() {
+    	return m_color;
     }
-    
-    public FloatBuffer getColor() { 
-    	return m_color; 
+
+    // the extent of the mesh in model space, null if not uploaded yet or empty
+    public Bounds getBounds() {
+        return m_bounds;
     }
 
-    public void setupPositions(int positionsID) {
-        glBindBuffer(GL_ARRAY_BUFFER, m_POSITION_VBO);
-        glEnableVertexAttribArray(positionsID); // enable vertex attribute array positionsID
-        glVertexAttribPointer(positionsID, 3, GL_FLOAT, false, 0, 0);
+    // the transform applied before the model transform if the positions are quantized, otherwise null
+    public Matrix4x3dc getDequantization() {
+        return m_dequantization;
     }
-    
-    public void setupNormals(int normalsID) {
-        glBindBuffer(GL_ARRAY_BUFFER, m_NORMAL_VBO);
-        glEnableVertexAttribArray(normalsID); // enable vertex attribute array normalsID
-        glVertexAttribPointer(normalsID, 3, GL_FLOAT, false, 0, 0);
+
+    // true if the vertices carry their own colors, which are modulated by the color of the object
+    public boolean hasVertexColors() {
+        return m_format != null && m_format.has(VertexFormat.Attribute.COLOR);
     }
 
-    protected void allocatePositionBuffer(int size) {
-        m_positions = memAllocFloat(size);
+    /**
+     * Appends a coarser level of detail, drawn instead of this object while its bounding sphere projects to
+     * less than the given radius in pixels. The radii of successive levels have to decrease. The coarser
+     * meshes are uploaded separately; a level that hasn't been uploaded yet is replaced by this object.
+     */
+    public void addLod(OGLObject coarser, float maxRadius) {
+        final int n = m_lods.length;
+        if (n > 0 && maxRadius >= m_lodRadii[n - 1])
+            throw new IllegalArgumentException("Radii of coarser levels have to decrease");
+
+        m_lods = Arrays.copyOf(m_lods, n + 1);
+        m_lodRadii = Arrays.copyOf(m_lodRadii, n + 1);
+        m_lods[n] = coarser;
+        m_lodRadii[n] = maxRadius;
     }
-    
-    protected void allocateNormalBuffer(int size) {
-        m_normals = memAllocFloat(size);
+
+    // number of levels including this object as level 0
+    public int getLodCount() {
+        return m_lods.length + 1;
     }
-    
-    protected void bindPositionBuffer() {
-        m_positions.limit(m_vertexCount*3);
 
-        glBindBuffer(GL_ARRAY_BUFFER, m_POSITION_VBO);
-        glBufferData(GL_ARRAY_BUFFER, m_positions, GL_STATIC_DRAW);
+    // the mesh of the given level, this object if the level hasn't been uploaded yet
+    public OGLObject getLod(int level) {
+        OGLObject lod = level == 0 ? this : m_lods[level - 1];
+        return lod.isUploaded() ? lod : this;
+    }
+
+    // selects the level for the given projected radius in pixels, starting from the current level:
+    // the level only changes if the radius is beyond the switching radius by more than the hysteresis
+    public int selectLod(int current, float radius) {
+        while (current < m_lods.length && radius < m_lodRadii[current]*(1 - LOD_HYSTERESIS))
+            current++;
+        while (current > 0 && radius > m_lodRadii[current - 1]*(1 + LOD_HYSTERESIS))
+            current--;
+        return current;
+    }
 
-        memFree(m_positions);
+    // selects the level of a direct draw of this object and returns its mesh
+    public OGLObject lod(float radius) {
+        m_lod = selectLod(m_lod, radius);
+        return getLod(m_lod);
+    }
 
-        m_positions = null;
+    public boolean isUploaded() {
+        return m_VAO != 0;
     }
 
-    protected void bindNormalBuffer() {
-        m_normals.limit(m_vertexCount*3);
+    public boolean isIndexed() {
+        return m_EBO != 0;
+    }
+
+    public int getIndexCount() {
+        return m_indexCount;
+    }
+
+    public int getIndexType() {
+        return m_indexType;
+    }
+
+    public void bind() {
+        glBindVertexArray(m_VAO); // the vertex layout and the index buffer have been recorded in the VAO
+    }
+
+    // binds this object and draws all its vertices, indexed if the vertices have been welded
+    public void draw(int mode) {
+        glBindVertexArray(m_VAO);
+        drawBound(mode);
+    }
+
+    // draws all vertices of this object, whose VAO has already been bound, e.g. by a previous draw
+    public void drawBound(int mode) {
+        if (m_EBO != 0) {
+            glDrawElements(mode, m_indexCount, m_indexType, 0);
+        } else {
+            glDrawArrays(mode, 0, m_vertexCount);
+        }
+    }
+
+    // allocates a growing mesh builder with room for the expected number of vertices
+    protected void allocateVertexBuffer(VertexFormat format, int vertexCount) {
+        m_vertices = new MeshBuilder(format, vertexCount);
+    }
+
+    protected void bindVertexBuffer() {
+        upload(m_vertices);
+        m_vertices = null;
+    }
+
+    // creates the OpenGL objects of this object and uploads the given mesh, which is freed afterwards;
+    // the mesh may have been built on any thread, but this method must run on the thread owning the context
+    public void upload(MeshBuilder mesh) {
+        upload(mesh.getFormat(), mesh.getVertices(), mesh.getIndices(), mesh.getIndexType(), mesh.getBounds());
+        mesh.free();
+    }
 
-        glBindBuffer(GL_ARRAY_BUFFER, m_NORMAL_VBO);
-        glBufferData(GL_ARRAY_BUFFER, m_normals, GL_STATIC_DRAW);
+    // creates the OpenGL objects of this object and uploads vertices of the given format and optional indices
+    // directly from the given buffers, e.g. slices of a mapped file, which aren't referenced afterwards
+    public void upload(VertexFormat format, ByteBuffer vertices, ByteBuffer indices, int indexType, Bounds bounds) {
+        if (m_VAO != 0)
+            throw new IllegalStateException("Object has already been uploaded");
 
-        memFree(m_normals);
+        m_vertexCount = vertices.remaining()/format.getStride();
+        m_bounds = bounds;
+        m_format = format;
+        if (format.isQuantized()) {
+            if (bounds == null)
+                throw new IllegalArgumentException("Quantized positions require the bounds of the mesh");
+            m_dequantization = bounds.dequantization(new Matrix4x3d());
+        }
+        m_VAO = glGenVertexArrays();		// generate one vertex array object name
+        m_VBO = glGenBuffers(); 			// generate one buffer object name
 
-        m_normals = null;
+        glBindVertexArray(m_VAO);
+        glBindBuffer(GL_ARRAY_BUFFER, m_VBO);
+        glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+        format.setup(); // enable and describe all attributes of the format
+        if (indices != null) {
+            m_indexType = indexType;
+            m_indexCount = indices.remaining()/(indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES);
+            m_EBO = glGenBuffers();
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, m_EBO); // part of the VAO state
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        }
+        glBindVertexArray(0);
     }
 }
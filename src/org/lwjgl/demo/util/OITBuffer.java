@@ -0,0 +1,255 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.demo.util.IOUtil.mapResource;
+import static org.lwjgl.opengl.ARBDrawBuffersBlend.glBlendFunciARB;
+import static org.lwjgl.opengl.GL11C.GL_COLOR;
+import static org.lwjgl.opengl.GL11C.GL_DEPTH;
+import static org.lwjgl.opengl.GL11C.GL_DEPTH_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11C.GL_DEPTH_TEST;
+import static org.lwjgl.opengl.GL11C.GL_FLOAT;
+import static org.lwjgl.opengl.GL11C.GL_NEAREST;
+import static org.lwjgl.opengl.GL11C.GL_NONE;
+import static org.lwjgl.opengl.GL11C.GL_ONE;
+import static org.lwjgl.opengl.GL11C.GL_ONE_MINUS_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11C.GL_ONE_MINUS_SRC_COLOR;
+import static org.lwjgl.opengl.GL11C.GL_RGBA;
+import static org.lwjgl.opengl.GL11C.GL_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11C.GL_STENCIL;
+import static org.lwjgl.opengl.GL11C.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11C.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11C.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11C.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11C.GL_ZERO;
+import static org.lwjgl.opengl.GL11C.glBindTexture;
+import static org.lwjgl.opengl.GL11C.glBlendFunc;
+import static org.lwjgl.opengl.GL11C.glDeleteTextures;
+import static org.lwjgl.opengl.GL11C.glDisable;
+import static org.lwjgl.opengl.GL11C.glDrawArrays;
+import static org.lwjgl.opengl.GL11C.glEnable;
+import static org.lwjgl.opengl.GL11C.glGenTextures;
+import static org.lwjgl.opengl.GL11C.glGetInteger;
+import static org.lwjgl.opengl.GL11C.glTexImage2D;
+import static org.lwjgl.opengl.GL11C.glTexParameteri;
+import static org.lwjgl.opengl.GL13C.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13C.GL_TEXTURE1;
+import static org.lwjgl.opengl.GL13C.glActiveTexture;
+import static org.lwjgl.opengl.GL14C.GL_DEPTH_COMPONENT16;
+import static org.lwjgl.opengl.GL14C.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL20C.GL_CURRENT_PROGRAM;
+import static org.lwjgl.opengl.GL20C.glDeleteProgram;
+import static org.lwjgl.opengl.GL20C.glDrawBuffers;
+import static org.lwjgl.opengl.GL20C.glGetUniformLocation;
+import static org.lwjgl.opengl.GL20C.glUniform1i;
+import static org.lwjgl.opengl.GL20C.glUseProgram;
+import static org.lwjgl.opengl.GL30C.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30C.GL_COLOR_ATTACHMENT1;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH24_STENCIL8;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH32F_STENCIL8;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH_ATTACHMENT;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH_COMPONENT32F;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH_STENCIL_ATTACHMENT;
+import static org.lwjgl.opengl.GL30C.GL_DRAW_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30C.GL_DRAW_FRAMEBUFFER_BINDING;
+import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER_ATTACHMENT_DEPTH_SIZE;
+import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER_ATTACHMENT_OBJECT_TYPE;
+import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER_ATTACHMENT_STENCIL_SIZE;
+import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30C.GL_R8;
+import static org.lwjgl.opengl.GL30C.GL_READ_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30C.GL_RED;
+import static org.lwjgl.opengl.GL30C.GL_RENDERBUFFER;
+import static org.lwjgl.opengl.GL30C.GL_RGBA16F;
+import static org.lwjgl.opengl.GL30C.GL_STENCIL_ATTACHMENT;
+import static org.lwjgl.opengl.GL30C.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30C.glBindRenderbuffer;
+import static org.lwjgl.opengl.GL30C.glBindVertexArray;
+import static org.lwjgl.opengl.GL30C.glBlitFramebuffer;
+import static org.lwjgl.opengl.GL30C.glCheckFramebufferStatus;
+import static org.lwjgl.opengl.GL30C.glClearBufferfv;
+import static org.lwjgl.opengl.GL30C.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30C.glDeleteRenderbuffers;
+import static org.lwjgl.opengl.GL30C.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30C.glFramebufferRenderbuffer;
+import static org.lwjgl.opengl.GL30C.glFramebufferTexture2D;
+import static org.lwjgl.opengl.GL30C.glGenFramebuffers;
+import static org.lwjgl.opengl.GL30C.glGenRenderbuffers;
+import static org.lwjgl.opengl.GL30C.glGenVertexArrays;
+import static org.lwjgl.opengl.GL30C.glGetFramebufferAttachmentParameteri;
+import static org.lwjgl.opengl.GL30C.glRenderbufferStorage;
+import static org.lwjgl.opengl.GL40C.glBlendFunci;
+import static org.lwjgl.system.MemoryStack.stackPush;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+
+/**
+ * Weighted blended order-independent transparency (McGuire and Bavoil 2013). Transparent fragments are
+ * drawn in any order into two targets: an RGBA16F accumulation target summing up the weighted premultiplied
+ * colors and alphas, and an R8 revealage target multiplying up (1 - alpha). The composite pass then blends
+ * the weighted average color over the opaque scene with the total coverage 1 - revealage. The depth of the
+ * opaque scene is blitted into the frame buffer of the targets, so opaque geometry still hides transparent
+ * fragments, while transparent fragments don't write depth. Requires per-buffer blend functions.
+ */
+public class OITBuffer {
+	private final int m_FBO;
+	private final int m_accum;		// RGBA16F texture
+	private final int m_reveal;		// R8 texture
+	private final int m_depth;		// depth render buffer with the format of the target's depth buffer
+	private final int m_width, m_height;
+	private final boolean m_core40;	// glBlendFunci, otherwise ARB_draw_buffers_blend
+	private final int m_program;	// composite pass
+	private final int m_VAO;		// empty, the composite pass generates its vertices
+	private int m_target;			// frame buffer of the opaque scene, restored by end
+
+	public static boolean isSupported() {
+		GLCapabilities caps = GL.getCapabilities();
+		return caps.OpenGL40 || caps.GL_ARB_draw_buffers_blend;
+	}
+
+	// must be created while the frame buffer the model renders into is bound
+	public OITBuffer(int width, int height) {
+		m_width = width;
+		m_height = height;
+		m_core40 = GL.getCapabilities().OpenGL40;
+
+		m_accum = texture(GL_RGBA16F, GL_RGBA, width, height);
+		m_reveal = texture(GL_R8, GL_RED, width, height);
+		m_depth = glGenRenderbuffers();
+		final int depthFormat = depthFormat();
+		glBindRenderbuffer(GL_RENDERBUFFER, m_depth);
+		glRenderbufferStorage(GL_RENDERBUFFER, depthFormat, width, height); // the same format, so the depth can be blitted
+		glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+		final int target = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+		m_FBO = glGenFramebuffers();
+		glBindFramebuffer(GL_FRAMEBUFFER, m_FBO);
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, m_accum, 0);
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT1, GL_TEXTURE_2D, m_reveal, 0);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER,
+			hasStencil(depthFormat) ? GL_DEPTH_STENCIL_ATTACHMENT : GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, m_depth);
+		try (MemoryStack stack = stackPush()) {
+			glDrawBuffers(stack.ints(GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1));
+		}
+		int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+		glBindFramebuffer(GL_FRAMEBUFFER, target);
+		if (status != GL_FRAMEBUFFER_COMPLETE) {
+			throw new IllegalStateException("Incomplete frame buffer: 0x" + Integer.toHexString(status));
+		}
+
+		// composite pass
+		try (
+			IOUtil.Resource vs = mapResource("oit_composite.vert");
+			IOUtil.Resource fs = mapResource("oit_composite.frag")
+		) {
+			ProgramCache programs = new ProgramCache();
+			m_program = programs.end(programs.begin(330, "", vs.data(), fs.data()));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		final int current = glGetInteger(GL_CURRENT_PROGRAM);
+		glUseProgram(m_program);
+		glUniform1i(glGetUniformLocation(m_program, "u_Accum"), 0);
+		glUniform1i(glGetUniformLocation(m_program, "u_Reveal"), 1);
+		glUseProgram(current);
+		m_VAO = glGenVertexArrays();
+	}
+
+	public int getWidth() {
+		return m_width;
+	}
+
+	public int getHeight() {
+		return m_height;
+	}
+
+	/**
+	 * Redirects the following draw calls into the OIT targets. Transparent draws must use a shader writing
+	 * the accumulation and revealage outputs, with blending enabled and depth writes disabled.
+	 */
+	public void begin() {
+		m_target = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING); // the headless offscreen frame buffer or the window
+
+		glBindFramebuffer(GL_READ_FRAMEBUFFER, m_target);
+		glBindFramebuffer(GL_DRAW_FRAMEBUFFER, m_FBO);
+		glBlitFramebuffer(0, 0, m_width, m_height, 0, 0, m_width, m_height, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+		glBindFramebuffer(GL_FRAMEBUFFER, m_FBO);
+
+		try (MemoryStack stack = stackPush()) {
+			glClearBufferfv(GL_COLOR, 0, stack.floats(0, 0, 0, 0));
+			glClearBufferfv(GL_COLOR, 1, stack.floats(1, 0, 0, 0)); // fully revealed
+		}
+		if (m_core40) {
+			glBlendFunci(0, GL_ONE, GL_ONE);
+			glBlendFunci(1, GL_ZERO, GL_ONE_MINUS_SRC_COLOR);
+		} else {
+			glBlendFunciARB(0, GL_ONE, GL_ONE);
+			glBlendFunciARB(1, GL_ZERO, GL_ONE_MINUS_SRC_COLOR);
+		}
+	}
+
+	// composites the accumulated transparent fragments over the opaque scene in the frame buffer bound at begin,
+	// leaves the composite program and an empty VAO bound
+	public void end() {
+		glBindFramebuffer(GL_FRAMEBUFFER, m_target);
+		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		glDisable(GL_DEPTH_TEST);
+
+		glUseProgram(m_program);
+		glActiveTexture(GL_TEXTURE0);
+		glBindTexture(GL_TEXTURE_2D, m_accum);
+		glActiveTexture(GL_TEXTURE1);
+		glBindTexture(GL_TEXTURE_2D, m_reveal);
+		glBindVertexArray(m_VAO);
+		glDrawArrays(GL_TRIANGLES, 0, 3);
+
+		glBindTexture(GL_TEXTURE_2D, 0);
+		glActiveTexture(GL_TEXTURE0);
+		glBindTexture(GL_TEXTURE_2D, 0);
+		glEnable(GL_DEPTH_TEST);
+	}
+
+	public void free() {
+		glDeleteFramebuffers(m_FBO);
+		glDeleteTextures(m_accum);
+		glDeleteTextures(m_reveal);
+		glDeleteRenderbuffers(m_depth);
+		glDeleteVertexArrays(m_VAO);
+		glDeleteProgram(m_program);
+	}
+
+	private static int texture(int internalFormat, int format, int width, int height) {
+		int texture = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, texture);
+		glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, GL_FLOAT, (ByteBuffer)null);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		glBindTexture(GL_TEXTURE_2D, 0);
+		return texture;
+	}
+
+	// the depth format of the bound draw frame buffer, which glBlitFramebuffer requires for both frame buffers
+	private static int depthFormat() {
+		final boolean fbo = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING) != 0;
+		final int depth = attachmentSize(fbo ? GL_DEPTH_ATTACHMENT : GL_DEPTH, GL_FRAMEBUFFER_ATTACHMENT_DEPTH_SIZE);
+		final int stencil = attachmentSize(fbo ? GL_STENCIL_ATTACHMENT : GL_STENCIL, GL_FRAMEBUFFER_ATTACHMENT_STENCIL_SIZE);
+
+		if (stencil > 0)
+			return depth > 24 ? GL_DEPTH32F_STENCIL8 : GL_DEPTH24_STENCIL8;
+		return depth > 24 ? GL_DEPTH_COMPONENT32F : depth > 16 ? GL_DEPTH_COMPONENT24 : GL_DEPTH_COMPONENT16;
+	}
+
+	private static int attachmentSize(int attachment, int pname) {
+		if (glGetFramebufferAttachmentParameteri(GL_DRAW_FRAMEBUFFER, attachment, GL_FRAMEBUFFER_ATTACHMENT_OBJECT_TYPE) == GL_NONE)
+			return 0;
+		return glGetFramebufferAttachmentParameteri(GL_DRAW_FRAMEBUFFER, attachment, pname);
+	}
+
+	private static boolean hasStencil(int depthFormat) {
+		return depthFormat == GL_DEPTH24_STENCIL8 || depthFormat == GL_DEPTH32F_STENCIL8;
+	}
+}
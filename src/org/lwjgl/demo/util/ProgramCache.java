@@ -0,0 +1,279 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL11C.GL_RENDERER;
+import static org.lwjgl.opengl.GL11C.GL_TRUE;
+import static org.lwjgl.opengl.GL11C.GL_VERSION;
+import static org.lwjgl.opengl.GL11C.glGetInteger;
+import static org.lwjgl.opengl.GL11C.glGetString;
+import static org.lwjgl.opengl.GL20C.GL_COMPILE_STATUS;
+import static org.lwjgl.opengl.GL20C.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20C.GL_INFO_LOG_LENGTH;
+import static org.lwjgl.opengl.GL20C.GL_LINK_STATUS;
+import static org.lwjgl.opengl.GL20C.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL20C.glAttachShader;
+import static org.lwjgl.opengl.GL20C.glBindAttribLocation;
+import static org.lwjgl.opengl.GL20C.glCompileShader;
+import static org.lwjgl.opengl.GL20C.glCreateProgram;
+import static org.lwjgl.opengl.GL20C.glCreateShader;
+import static org.lwjgl.opengl.GL20C.glDeleteShader;
+import static org.lwjgl.opengl.GL20C.glDetachShader;
+import static org.lwjgl.opengl.GL20C.glGetProgramInfoLog;
+import static org.lwjgl.opengl.GL20C.glGetProgrami;
+import static org.lwjgl.opengl.GL20C.glGetShaderInfoLog;
+import static org.lwjgl.opengl.GL20C.glGetShaderi;
+import static org.lwjgl.opengl.GL20C.glLinkProgram;
+import static org.lwjgl.opengl.GL20C.glShaderSource;
+import static org.lwjgl.opengl.GL41C.GL_NUM_PROGRAM_BINARY_FORMATS;
+import static org.lwjgl.opengl.GL41C.GL_PROGRAM_BINARY_LENGTH;
+import static org.lwjgl.opengl.GL41C.GL_PROGRAM_BINARY_RETRIEVABLE_HINT;
+import static org.lwjgl.opengl.GL41C.glGetProgramBinary;
+import static org.lwjgl.opengl.GL41C.glProgramBinary;
+import static org.lwjgl.opengl.GL41C.glProgramParameteri;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+
+/**
+ * Builds shader programs from a vertex and a fragment shader with a version header and injected defines.
+ * Linked programs are stored as program binaries in a cache directory (-Dogl.shaderCache, empty to
+ * disable), keyed by a hash of the sources, the header, the attribute locations, GL_RENDERER and GL_VERSION.
+ * A cached binary is restored with glProgramBinary; if the driver rejects it, the program is compiled again.
+ * Building is split into begin and end: all programs begun before the first end are compiled in parallel
+ * by drivers supporting KHR_parallel_shader_compile.
+ */
+public class ProgramCache {
+	private final static String DefaultDirectory = Paths.get(System.getProperty("user.home"), ".opengl-demo", "shaders").toString();
+
+	// a program begun but not yet ended
+	private static final class Pending {
+		final String m_key;
+		final int m_vs, m_fs;	// 0 if restored from a binary
+
+		Pending(String key, int vs, int fs) {
+			m_key = key;
+			m_vs = vs;
+			m_fs = fs;
+		}
+	}
+
+	private final Path m_directory;		// null if binaries can't or shouldn't be cached
+	private final String m_context;		// renderer and version of the context, part of each key
+	private final Map<Integer, Pending> m_pending = new HashMap<>();
+
+	public ProgramCache() {
+		GLCapabilities caps = GL.getCapabilities();
+		String directory = System.getProperty("ogl.shaderCache", DefaultDirectory);
+		boolean binaries = (caps.OpenGL41 || caps.GL_ARB_get_program_binary) && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+
+		m_directory = binaries && !directory.isEmpty() ? Paths.get(directory) : null;
+		m_context = glGetString(GL_RENDERER) + "\n" + glGetString(GL_VERSION);
+
+		if (caps.GL_KHR_parallel_shader_compile) {
+			glMaxShaderCompilerThreadsKHR(0xFFFFFFFF); // let the driver choose the number of threads
+		}
+	}
+
+	/**
+	 * Starts building a program with the header "#version version" followed by the defines.
+	 * The returned program must be passed to end before it is used.
+	 */
+	public int begin(int version, String defines, ByteBuffer vs, ByteBuffer fs) {
+		final String header = "#version " + version + "\n" + defines + "#line 0\n";
+		final String key = key(header, vs, fs);
+		final int p = glCreateProgram();
+
+		if (restore(p, key)) {
+			m_pending.put(p, new Pending(key, 0, 0));
+			return p;
+		}
+
+		int v = glCreateShader(GL_VERTEX_SHADER);
+		int f = glCreateShader(GL_FRAGMENT_SHADER);
+		source(v, header, vs);
+		source(f, header, fs);
+		glCompileShader(v); // compile and link without querying the status, which would wait for the compiler
+		glCompileShader(f);
+
+		glAttachShader(p, v);
+		glAttachShader(p, f);
+
+		// attribute locations are fixed, because each OGLObject records its vertex layout in its own VAO
+		for (VertexFormat.Attribute a : VertexFormat.Attribute.values()) {
+			glBindAttribLocation(p, a.location, a.name);
+		}
+		if (m_directory != null) {
+			glProgramParameteri(p, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+		}
+		glLinkProgram(p);
+
+		m_pending.put(p, new Pending(key, v, f));
+		return p;
+	}
+
+	// waits until the program has been linked, stores its binary if it has been compiled and returns it
+	public int end(int program) {
+		Pending pending = m_pending.remove(program);
+		if (pending == null)
+			throw new IllegalArgumentException("Program " + program + " has not been begun");
+		if (pending.m_vs == 0)
+			return program; // restored from the cache
+
+		checkShader(pending.m_vs);
+		checkShader(pending.m_fs);
+		printProgramInfoLog(program);
+		if (glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
+			throw new IllegalStateException("Failed to link program.");
+		}
+
+		glDetachShader(program, pending.m_vs);
+		glDetachShader(program, pending.m_fs);
+		glDeleteShader(pending.m_vs);
+		glDeleteShader(pending.m_fs);
+
+		store(program, pending.m_key);
+		return program;
+	}
+
+	// loads a cached binary into the program, returns false if there is none or the driver rejects it;
+	// truncated and rejected binaries are deleted, so they aren't tried again on the next launch
+	private boolean restore(int program, String key) {
+		if (m_directory == null)
+			return false;
+
+		Path file = m_directory.resolve(key);
+		if (!Files.isReadable(file))
+			return false;
+
+		ByteBuffer binary = null;
+		try {
+			byte[] bytes = Files.readAllBytes(file);
+			if (bytes.length <= 4) {
+				delete(file); // format without binary
+				return false;
+			}
+			binary = memAlloc(bytes.length).put(bytes).flip();
+			int format = binary.getInt(0);
+			glProgramBinary(program, format, binary.position(4));
+			if (glGetProgrami(program, GL_LINK_STATUS) == GL_TRUE)
+				return true;
+			delete(file); // e.g. after a driver update
+			return false;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (binary != null) memFree(binary);
+		}
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			System.err.println("Failed to delete cached program binary: " + e);
+		}
+	}
+
+	// writes the binary of a linked program into the cache, preceded by its format
+	private void store(int program, String key) {
+		if (m_directory == null)
+			return;
+
+		int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0)
+			return;
+
+		ByteBuffer binary = memAlloc(4 + length);
+		try (MemoryStack stack = stackPush()) {
+			IntBuffer format = stack.mallocInt(1);
+			glGetProgramBinary(program, null, format, binary.position(4));
+			binary.putInt(0, format.get(0)).position(0);
+
+			byte[] bytes = new byte[binary.remaining()];
+			binary.get(bytes);
+
+			Files.createDirectories(m_directory);
+			Path tmp = Files.createTempFile(m_directory, key, ".tmp");
+			Files.write(tmp, bytes);
+			Files.move(tmp, m_directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Failed to cache program binary: " + e);
+		} finally {
+			memFree(binary);
+		}
+	}
+
+	// SHA-256 of everything determining the binary, as hex string
+	private String key(String header, ByteBuffer vs, ByteBuffer fs) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(m_context.getBytes(StandardCharsets.UTF_8));
+			md.update(header.getBytes(StandardCharsets.UTF_8));
+			for (VertexFormat.Attribute a : VertexFormat.Attribute.values()) {
+				md.update((a.location + a.name).getBytes(StandardCharsets.UTF_8));
+			}
+			md.update(vs.duplicate());
+			md.update((byte)0);
+			md.update(fs.duplicate());
+
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void source(int shader, String header, ByteBuffer code) {
+		try (MemoryStack stack = stackPush()) {
+			ByteBuffer h = stack.ASCII(header, false);
+
+			glShaderSource(
+				shader,
+				stack.pointers(h, code),
+				stack.ints(h.remaining(), code.remaining())
+			);
+		}
+	}
+
+	private static void checkShader(int shader) {
+		printShaderInfoLog(shader);
+
+		if (glGetShaderi(shader, GL_COMPILE_STATUS) != GL_TRUE) {
+			throw new IllegalStateException("Failed to compile shader.");
+		}
+	}
+
+	private static void printShaderInfoLog(int obj) {
+		int infologLength = glGetShaderi(obj, GL_INFO_LOG_LENGTH);
+		if (infologLength > 0) {
+			System.out.format("%s\n", glGetShaderInfoLog(obj));
+		}
+	}
+
+	private static void printProgramInfoLog(int obj) {
+		int infologLength = glGetProgrami(obj, GL_INFO_LOG_LENGTH);
+		if (infologLength > 0) {
+			System.out.format("%s\n", glGetProgramInfoLog(obj));
+		}
+	}
+}
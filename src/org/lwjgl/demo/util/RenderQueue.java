@@ -0,0 +1,228 @@
+package org.lwjgl.demo.util;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4x3d;
+import org.joml.Matrix4x3dc;
+
+/**
+ * Collects the draw packets of one frame and sorts them into an order minimizing state changes.
+ * Each packet is encoded into a 64-bit key, whose lowest bits hold the packet index, so sorting the keys
+ * with an LSD radix sort is all that is needed to get the draw order:
+ * <pre>
+ * opaque:      0 | program (8) | mesh (14) | depth (21)        | packet (20)
+ * transparent: 1 | inverted depth (21)     | program (8) | mesh (14) | packet (20)
+ * </pre>
+ * Opaque packets are grouped by program and mesh and drawn front to back within a group for early-Z,
+ * transparent packets are drawn back to front after all opaque packets. Program and mesh are only
+ * represented by the low bits of their OpenGL names, which is enough for grouping.
+ * The packet data is stored in flat arrays that only grow, so submitting doesn't allocate.
+ */
+public class RenderQueue {
+	private final static int PacketBits = 20;
+	private final static int MeshBits = 14;
+	private final static int ProgramBits = 8;
+	private final static int DepthBits = 21;
+	private final static long MaxDepth = (1L << DepthBits) - 1;
+	private final static long TransparentBit = 1L << 63;
+
+	private final double m_far;		// view distance mapped to the largest depth key
+
+	private int m_count;			// submitted packets
+	private int m_keyCount;			// packets to draw, fewer than m_count after retain
+	private long[] m_keys;
+	private long[] m_sorted;		// radix sort buffer
+	private final int[] m_counts = new int[256];
+	private int[] m_programs;
+	private int[] m_modes;
+	private boolean[] m_transparent;
+	private OGLObject[] m_meshes;
+	private InstanceBuffer[] m_instances;	// null for single draws
+	private SceneNode[] m_nodes;	// node providing cached matrices, null for draws with a copied transform
+	private double[] m_transforms;	// 12 doubles (mat4x3) per packet
+	private float[] m_colors;		// 4 floats per packet
+
+	public RenderQueue(double far, int capacity) {
+		m_far = far;
+		m_keys = new long[capacity];
+		m_sorted = new long[capacity];
+		m_programs = new int[capacity];
+		m_modes = new int[capacity];
+		m_transparent = new boolean[capacity];
+		m_meshes = new OGLObject[capacity];
+		m_instances = new InstanceBuffer[capacity];
+		m_nodes = new SceneNode[capacity];
+		m_transforms = new double[capacity*12];
+		m_colors = new float[capacity*4];
+	}
+
+	// the number of packets to draw
+	public int size() {
+		return m_keyCount;
+	}
+
+	// the number of submitted packets, including culled packets
+	public int getPacketCount() {
+		return m_count;
+	}
+
+	public void clear() {
+		Arrays.fill(m_meshes, 0, m_count, null);
+		Arrays.fill(m_instances, 0, m_count, null);
+		Arrays.fill(m_nodes, 0, m_count, null);
+		m_count = 0;
+		m_keyCount = 0;
+	}
+
+	// drops the packets that are not visible, indexed by packet; must be called before sort
+	public void retain(boolean[] visible) {
+		int n = 0;
+		for (int i = 0; i < m_keyCount; i++) {
+			final long key = m_keys[i];
+			if (visible[(int)(key & ((1 << PacketBits) - 1))])
+				m_keys[n++] = key;
+		}
+		m_keyCount = n;
+	}
+
+	/**
+	 * Queues a draw of a mesh with the given program, model transform and color.
+	 *
+	 * @param depth the view space distance of the mesh, used to sort front to back or back to front
+	 */
+	public void submit(int program, OGLObject mesh, int mode, Matrix4x3dc model, float r, float g, float b, float a,
+			boolean transparent, double depth) {
+		int packet = add(program, mesh, mode, transparent, depth);
+		model.get(m_transforms, packet*12);
+		m_colors[packet*4 + 0] = r;
+		m_colors[packet*4 + 1] = g;
+		m_colors[packet*4 + 2] = b;
+		m_colors[packet*4 + 3] = a;
+	}
+
+	// queues a draw of a scene node with the given mesh, e.g. a level of detail of its mesh,
+	// whose matrices are read from the node when drawing
+	public void submit(int program, SceneNode node, OGLObject mesh, boolean transparent, double depth) {
+		int packet = add(program, mesh, node.getMode(), transparent, depth);
+		m_nodes[packet] = node;
+		for (int i = 0; i < 4; i++) {
+			m_colors[packet*4 + i] = node.getColor(i);
+		}
+	}
+
+	// queues an instanced draw of all instances of the given buffer
+	public void submit(int program, InstanceBuffer instances, int mode, boolean transparent, double depth) {
+		int packet = add(program, instances.getMesh(), mode, transparent, depth);
+		m_instances[packet] = instances;
+	}
+
+	private int add(int program, OGLObject mesh, int mode, boolean transparent, double depth) {
+		if (m_count == 1 << PacketBits)
+			throw new IllegalStateException("Too many packets in one frame");
+		if (m_count == m_keys.length)
+			grow(m_count*2);
+
+		final int packet = m_count++;
+		final long p = program & ((1 << ProgramBits) - 1);
+		final long m = mesh.m_VAO & ((1 << MeshBits) - 1);
+		final long d = (long)(Math.min(Math.max(depth/m_far, 0), 1)*MaxDepth);
+
+		if (transparent) {
+			m_keys[m_keyCount++] = TransparentBit
+				| (MaxDepth - d) << (ProgramBits + MeshBits + PacketBits)
+				| p << (MeshBits + PacketBits)
+				| m << PacketBits
+				| packet;
+		} else {
+			m_keys[m_keyCount++] = p << (MeshBits + DepthBits + PacketBits)
+				| m << (DepthBits + PacketBits)
+				| d << PacketBits
+				| packet;
+		}
+		m_programs[packet] = program;
+		m_modes[packet] = mode;
+		m_transparent[packet] = transparent;
+		m_meshes[packet] = mesh;
+		return packet;
+	}
+
+	private void grow(int capacity) {
+		m_keys = Arrays.copyOf(m_keys, capacity);
+		m_sorted = new long[capacity];
+		m_programs = Arrays.copyOf(m_programs, capacity);
+		m_modes = Arrays.copyOf(m_modes, capacity);
+		m_transparent = Arrays.copyOf(m_transparent, capacity);
+		m_meshes = Arrays.copyOf(m_meshes, capacity);
+		m_instances = Arrays.copyOf(m_instances, capacity);
+		m_nodes = Arrays.copyOf(m_nodes, capacity);
+		m_transforms = Arrays.copyOf(m_transforms, capacity*12);
+		m_colors = Arrays.copyOf(m_colors, capacity*4);
+	}
+
+	// sorts the keys with an LSD radix sort on bytes, skipping bytes that are equal in all keys
+	public void sort() {
+		long[] src = m_keys, dst = m_sorted;
+
+		final int count = m_keyCount;
+
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(m_counts, 0);
+			for (int i = 0; i < count; i++) {
+				m_counts[(int)(src[i] >>> shift) & 0xFF]++;
+			}
+			if (count == 0 || m_counts[(int)(src[0] >>> shift) & 0xFF] == count)
+				continue; // all keys share this byte
+
+			for (int i = 0, sum = 0; i < 256; i++) {
+				int c = m_counts[i];
+				m_counts[i] = sum;
+				sum += c;
+			}
+			for (int i = 0; i < count; i++) {
+				dst[m_counts[(int)(src[i] >>> shift) & 0xFF]++] = src[i];
+			}
+			long[] t = src; src = dst; dst = t;
+		}
+		m_keys = src;
+		m_sorted = dst;
+	}
+
+	// the packet index of the i-th packet in sorted order
+	public int getPacket(int i) {
+		return (int)(m_keys[i] & ((1 << PacketBits) - 1));
+	}
+
+	public boolean isTransparent(int packet) {
+		return m_transparent[packet];
+	}
+
+	public int getProgram(int packet) {
+		return m_programs[packet];
+	}
+
+	public int getMode(int packet) {
+		return m_modes[packet];
+	}
+
+	public OGLObject getMesh(int packet) {
+		return m_meshes[packet];
+	}
+
+	// the instance buffer of an instanced packet, otherwise null
+	public InstanceBuffer getInstances(int packet) {
+		return m_instances[packet];
+	}
+
+	// the scene node of a packet submitted as node, otherwise null
+	public SceneNode getNode(int packet) {
+		return m_nodes[packet];
+	}
+
+	public Matrix4x3d getTransform(int packet, Matrix4x3d dest) {
+		return dest.set(m_transforms, packet*12);
+	}
+
+	public float getColor(int packet, int component) {
+		return m_colors[packet*4 + component];
+	}
+}
@@ -0,0 +1,216 @@
+package org.lwjgl.demo.util;
+
+import java.util.ArrayList;
+
+import org.joml.Matrix3d;
+import org.joml.Matrix4d;
+import org.joml.Matrix4dc;
+import org.joml.Matrix4x3d;
+import org.joml.Matrix4x3dc;
+import org.joml.Vector3d;
+
+/**
+ * A node of a scene graph with a local transform relative to its parent and an optional mesh.
+ * Changing the local transform marks the node dirty and its ancestors as having a dirty descendant, so
+ * update() only recomputes the world transforms of changed subtrees and skips all clean ones. The
+ * view-dependent matrices of a node (V*world, its normal matrix and P*V*world) and its world bounding
+ * sphere are cached until the world transform or the camera changes.
+ */
+public class SceneNode {
+	private final Matrix4x3d m_local = new Matrix4x3d();
+	private final Matrix4x3d m_world = new Matrix4x3d();
+	private SceneNode m_parent;
+	private final ArrayList<SceneNode> m_children = new ArrayList<>(0);
+	private boolean m_dirty = true;		// the local transform has changed, the world transforms of the subtree are stale
+	private boolean m_dirtyBelow;		// a node below this node is dirty
+	private int m_worldVersion;			// incremented whenever the world transform changes
+
+	// mesh drawn with the world transform, null for pure transform nodes
+	private OGLObject m_mesh;
+	private int m_mode;
+	private final float[] m_color = new float[4];
+	private boolean m_transparent;
+	private int m_lod;					// level of detail of the mesh selected in the last frame
+
+	// cached view-dependent matrices, valid for m_viewWorld and m_viewCamera
+	private final Matrix4x3d m_VM = new Matrix4x3d();
+	private final Matrix3d m_normal = new Matrix3d();
+	private final Matrix4d m_PVM = new Matrix4d();
+	private int m_viewWorld = -1, m_viewCamera = -1;
+
+	// cached world bounding sphere, valid for m_sphereWorld
+	private final Vector3d m_center = new Vector3d();
+	private float m_radius;
+	private int m_sphereWorld = -1;
+
+	public SceneNode() {
+	}
+
+	// a node drawing the mesh with its own color
+	public SceneNode(OGLObject mesh, int mode) {
+		setMesh(mesh, mode);
+		setColor(mesh.getColor().get(0), mesh.getColor().get(1), mesh.getColor().get(2), mesh.getColor().get(3));
+	}
+
+	public SceneNode addChild(SceneNode child) {
+		if (child.m_parent != null)
+			child.m_parent.removeChild(child);
+		child.m_parent = this;
+		m_children.add(child);
+		child.markDirty(); // its world transform now depends on this node
+		return this;
+	}
+
+	public void removeChild(SceneNode child) {
+		if (m_children.remove(child))
+			child.m_parent = null;
+	}
+
+	public int getChildCount() {
+		return m_children.size();
+	}
+
+	public SceneNode getChild(int i) {
+		return m_children.get(i);
+	}
+
+	public SceneNode getParent() {
+		return m_parent;
+	}
+
+	public Matrix4x3dc getLocal() {
+		return m_local;
+	}
+
+	// returns the local transform for modification and marks this node dirty
+	public Matrix4x3d local() {
+		markDirty();
+		return m_local;
+	}
+
+	public void setLocal(Matrix4x3dc local) {
+		local().set(local);
+	}
+
+	private void markDirty() {
+		m_dirty = true;
+		for (SceneNode p = m_parent; p != null && !p.m_dirtyBelow; p = p.m_parent) {
+			p.m_dirtyBelow = true;
+		}
+	}
+
+	public void setMesh(OGLObject mesh, int mode) {
+		m_mesh = mesh;
+		m_mode = mode;
+		m_sphereWorld = -1;
+	}
+
+	public OGLObject getMesh() {
+		return m_mesh;
+	}
+
+	public int getMode() {
+		return m_mode;
+	}
+
+	public void setColor(float r, float g, float b, float a) {
+		m_color[0] = r;
+		m_color[1] = g;
+		m_color[2] = b;
+		m_color[3] = a;
+	}
+
+	public float getColor(int component) {
+		return m_color[component];
+	}
+
+	public int getLod() {
+		return m_lod;
+	}
+
+	public void setLod(int level) {
+		m_lod = level;
+	}
+
+	public void setTransparent(boolean transparent) {
+		m_transparent = transparent;
+	}
+
+	public boolean isTransparent() {
+		return m_transparent;
+	}
+
+	// recomputes the world transforms of all dirty nodes of this subtree, called on the root once per frame
+	public void update() {
+		update(false);
+	}
+
+	private void update(boolean parentChanged) {
+		final boolean changed = m_dirty || parentChanged;
+		if (changed) {
+			if (m_parent != null) {
+				m_parent.m_world.mul(m_local, m_world);
+			} else {
+				m_world.set(m_local);
+			}
+			m_worldVersion++;
+			m_dirty = false;
+		}
+		if (changed || m_dirtyBelow) {
+			m_dirtyBelow = false;
+			for (int i = 0; i < m_children.size(); i++) {
+				m_children.get(i).update(changed);
+			}
+		}
+	}
+
+	// the transform from model to world space, valid after update
+	public Matrix4x3dc getWorld() {
+		return m_world;
+	}
+
+	// recomputes the view-dependent matrices if the world transform or the camera has changed since the last call;
+	// camera is a version number the caller changes whenever P or V change
+	public void updateView(Matrix4dc P, Matrix4x3dc V, int camera) {
+		if (m_viewWorld == m_worldVersion && m_viewCamera == camera)
+			return;
+		V.mul(m_world, m_VM);
+		m_VM.normal(m_normal);
+		P.mul(m_VM, m_PVM);
+		m_viewWorld = m_worldVersion;
+		m_viewCamera = camera;
+	}
+
+	public Matrix4x3dc getVM() {
+		return m_VM;
+	}
+
+	public Matrix3d getNormal() {
+		return m_normal;
+	}
+
+	public Matrix4dc getPVM() {
+		return m_PVM;
+	}
+
+	// the world space center of the bounding sphere of the mesh, null if the mesh has no bounds
+	public Vector3d getWorldCenter() {
+		return updateSphere() ? m_center : null;
+	}
+
+	public float getWorldRadius() {
+		return updateSphere() ? m_radius : Float.POSITIVE_INFINITY;
+	}
+
+	private boolean updateSphere() {
+		Bounds bounds = m_mesh != null ? m_mesh.getBounds() : null;
+		if (bounds == null)
+			return false;
+		if (m_sphereWorld != m_worldVersion) {
+			m_world.transformPosition(m_center.set(bounds.centerX, bounds.centerY, bounds.centerZ));
+			m_radius = bounds.radius*(float)Bounds.maxScale(m_world);
+			m_sphereWorld = m_worldVersion;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,116 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL11.GL_POLYGON;
+import static org.lwjgl.opengl.GL11.GL_QUADS;
+import static org.lwjgl.opengl.GL11.GL_QUAD_STRIP;
+import static org.lwjgl.opengl.GL11C.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11C.GL_TRIANGLE_FAN;
+import static org.lwjgl.opengl.GL11C.GL_TRIANGLE_STRIP;
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_SHORT;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Matrix3d;
+import org.joml.Matrix4x3dc;
+import org.joml.Vector3d;
+import org.joml.Vector3f;
+
+/**
+ * Bakes parts with constant transforms and colors into one mesh, drawn with GL_TRIANGLES in a single draw call.
+ * Each part is transformed on the CPU (positions by the transform, normals by its normal matrix) and its
+ * primitives are triangulated, so parts drawn with different modes can share the batch. The part color is
+ * stored per vertex and modulated by the color of the batch, which is white unless changed, so only the
+ * transform of the whole assembly remains per frame.
+ */
+public class StaticBatch extends OGLObject {
+	private final Matrix3d m_normalMatrix = new Matrix3d();
+	private final Vector3f m_position = new Vector3f(), m_normal = new Vector3f();
+	private final Vector3d m_v = new Vector3d();
+
+	public StaticBatch(int expectedVertices) {
+		super(new Color4D(1, 1, 1, 1));
+		allocateVertexBuffer(VertexFormat.POSITION_NORMAL_COLOR, expectedVertices);
+	}
+
+	/**
+	 * Appends a part given by a mesh with positions and normals, which would be drawn with the given mode.
+	 * The part isn't modified and may be added several times with different transforms.
+	 */
+	public StaticBatch add(MeshBuilder part, int mode, Matrix4x3dc transform, float r, float g, float b, float a) {
+		if (m_vertices == null)
+			throw new IllegalStateException("Batch has already been baked");
+		if (part.getFormat().isQuantized())
+			throw new IllegalArgumentException("Parts have to be baked before they are compressed");
+
+		final int n = part.isIndexed() ? part.getIndexCount() : part.getVertexCount();
+		transform.normal(m_normalMatrix);
+
+		switch (mode) {
+		case GL_TRIANGLES:
+			for (int i = 0; i + 2 < n; i += 3)
+				triangle(part, i, i + 1, i + 2, transform, r, g, b, a);
+			break;
+		case GL_TRIANGLE_FAN:
+		case GL_POLYGON: // convex
+			for (int i = 1; i + 1 < n; i++)
+				triangle(part, 0, i, i + 1, transform, r, g, b, a);
+			break;
+		case GL_TRIANGLE_STRIP:
+			for (int i = 0; i + 2 < n; i++) {
+				if ((i & 1) == 0) triangle(part, i, i + 1, i + 2, transform, r, g, b, a);
+				else triangle(part, i + 1, i, i + 2, transform, r, g, b, a); // keeps the winding of odd triangles
+			}
+			break;
+		case GL_QUADS:
+			for (int i = 0; i + 3 < n; i += 4) {
+				triangle(part, i, i + 1, i + 2, transform, r, g, b, a);
+				triangle(part, i, i + 2, i + 3, transform, r, g, b, a);
+			}
+			break;
+		case GL_QUAD_STRIP:
+			for (int i = 0; i + 3 < n; i += 2) {
+				triangle(part, i, i + 1, i + 3, transform, r, g, b, a);
+				triangle(part, i, i + 3, i + 2, transform, r, g, b, a);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Mode " + mode + " can't be baked");
+		}
+		return this;
+	}
+
+	public int getBatchedVertexCount() {
+		return m_vertices != null ? m_vertices.getVertexCount() : m_vertexCount;
+	}
+
+	// welds the shared vertices and uploads the batch, afterwards no more parts can be added
+	public void bake() {
+		m_vertices.weld();
+		bindVertexBuffer();
+	}
+
+	private void triangle(MeshBuilder part, int i0, int i1, int i2, Matrix4x3dc transform, float r, float g, float b, float a) {
+		vertex(part, index(part, i0), transform, r, g, b, a);
+		vertex(part, index(part, i1), transform, r, g, b, a);
+		vertex(part, index(part, i2), transform, r, g, b, a);
+	}
+
+	private static int index(MeshBuilder part, int i) {
+		if (!part.isIndexed())
+			return i;
+		ByteBuffer indices = part.getIndices();
+		return part.getIndexType() == GL_UNSIGNED_SHORT ? indices.getShort(i*Short.BYTES) & 0xFFFF : indices.getInt(i*Integer.BYTES);
+	}
+
+	private void vertex(MeshBuilder part, int vertex, Matrix4x3dc transform, float r, float g, float b, float a) {
+		part.getPosition(vertex, m_position);
+		transform.transformPosition(m_v.set(m_position.x, m_position.y, m_position.z));
+		m_vertices.position((float)m_v.x, (float)m_v.y, (float)m_v.z);
+
+		part.getNormal(vertex, m_normal);
+		m_normalMatrix.transform(m_v.set(m_normal.x, m_normal.y, m_normal.z)).normalize();
+		m_vertices.normal((float)m_v.x, (float)m_v.y, (float)m_v.z);
+
+		m_vertices.color(r, g, b, a).endVertex();
+	}
+}
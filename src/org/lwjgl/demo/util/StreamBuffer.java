@@ -0,0 +1,145 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL15C.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL15C.glBindBuffer;
+import static org.lwjgl.opengl.GL15C.glBufferData;
+import static org.lwjgl.opengl.GL15C.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15C.glGenBuffers;
+import static org.lwjgl.opengl.GL15C.glUnmapBuffer;
+import static org.lwjgl.opengl.GL30C.GL_MAP_INVALIDATE_RANGE_BIT;
+import static org.lwjgl.opengl.GL30C.GL_MAP_UNSYNCHRONIZED_BIT;
+import static org.lwjgl.opengl.GL30C.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30C.glMapBufferRange;
+import static org.lwjgl.opengl.GL30C.nglMapBufferRange;
+import static org.lwjgl.opengl.GL32C.GL_SYNC_FLUSH_COMMANDS_BIT;
+import static org.lwjgl.opengl.GL32C.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32C.GL_TIMEOUT_EXPIRED;
+import static org.lwjgl.opengl.GL32C.glClientWaitSync;
+import static org.lwjgl.opengl.GL32C.glDeleteSync;
+import static org.lwjgl.opengl.GL32C.glFenceSync;
+import static org.lwjgl.opengl.GL44C.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.GL44C.GL_MAP_PERSISTENT_BIT;
+import static org.lwjgl.opengl.GL44C.glBufferStorage;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+/**
+ * A ring buffer for data written by the CPU every frame, e.g. per-object uniform blocks or dynamic geometry.
+ * With ARB_buffer_storage the whole buffer is mapped persistently and coherently once, and the written
+ * data is copied straight into GPU visible memory. The ring consists of three regions: before the CPU
+ * writes into a region again, it waits on the fence set when it left that region, so the GPU may still
+ * read the two other regions. On older contexts every write maps its range unsynchronized instead and
+ * the buffer is orphaned whenever the ring wraps around.
+ */
+public class StreamBuffer {
+	private final static int Regions = 3;	// triple buffered
+	private final static int MapFlags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+
+	private final int m_target;
+	private final int m_buffer;
+	private final int m_size;			// total size of all regions
+	private final int m_regionSize;
+	private final boolean m_persistent;	// false: orphaning fallback
+	private final long m_address;		// persistent mapping, NULL in the fallback
+	private final long[] m_fences = new long[Regions];	// guard the regions the GPU may still read
+	private int m_region;				// region written by the CPU
+	private int m_offset;				// end of the last write
+
+	public StreamBuffer(int target, int regionSize) {
+		GLCapabilities caps = GL.getCapabilities();
+
+		m_target = target;
+		m_regionSize = regionSize;
+		m_size = regionSize*Regions;
+		m_persistent = caps.OpenGL44 || caps.GL_ARB_buffer_storage;
+		m_buffer = glGenBuffers();
+
+		glBindBuffer(target, m_buffer);
+		if (m_persistent) {
+			glBufferStorage(target, m_size, MapFlags); // immutable storage
+			m_address = memAddress(glMapBufferRange(target, 0, m_size, MapFlags));
+		} else {
+			glBufferData(target, m_size, GL_STREAM_DRAW);
+			m_address = NULL;
+		}
+	}
+
+	public int getBuffer() {
+		return m_buffer;
+	}
+
+	public boolean isPersistent() {
+		return m_persistent;
+	}
+
+	// the largest write that fits into the ring
+	public int getRegionSize() {
+		return m_regionSize;
+	}
+
+	/**
+	 * Copies the remaining bytes of src into the next range of the ring, starting at a multiple of the
+	 * given alignment, and returns the offset of that range in the buffer. Draw calls using previously
+	 * written ranges must have been submitted before, because they are fenced when the ring advances.
+	 */
+	public int write(ByteBuffer src, int alignment) {
+		return write(memAddress(src), src.remaining(), alignment);
+	}
+
+	public int write(long src, int size, int alignment) {
+		if (size > m_regionSize)
+			throw new IllegalArgumentException("Write of " + size + " bytes exceeds the region size " + m_regionSize);
+
+		int offset = (m_offset + alignment - 1)/alignment*alignment;
+		if (m_persistent) {
+			if (offset + size > (m_region + 1)*m_regionSize) {
+				offset = nextRegion();
+			}
+			memCopy(src, m_address + offset, size);
+		} else {
+			glBindBuffer(m_target, m_buffer);
+			if (offset + size > m_size) {
+				glBufferData(m_target, m_size, GL_STREAM_DRAW); // orphan instead of waiting for the GPU
+				offset = 0;
+			}
+			long dst = nglMapBufferRange(m_target, offset, size, GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_UNSYNCHRONIZED_BIT);
+			memCopy(src, dst, size);
+			glUnmapBuffer(m_target);
+		}
+		m_offset = offset + size;
+		return offset;
+	}
+
+	// fences the current region and waits until the GPU has finished reading the next one
+	private int nextRegion() {
+		m_fences[m_region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		m_region = (m_region + 1)%Regions;
+
+		long fence = m_fences[m_region];
+		if (fence != NULL) {
+			while (glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 1_000_000) == GL_TIMEOUT_EXPIRED) {
+				; // the GPU is more than two regions behind
+			}
+			glDeleteSync(fence);
+			m_fences[m_region] = NULL;
+		}
+		return m_region*m_regionSize;
+	}
+
+	public void free() {
+		for (long fence : m_fences) {
+			if (fence != NULL) glDeleteSync(fence);
+		}
+		if (m_persistent) {
+			glBindBuffer(m_target, m_buffer);
+			glUnmapBuffer(m_target);
+		}
+		glDeleteBuffers(m_buffer);
+	}
+}
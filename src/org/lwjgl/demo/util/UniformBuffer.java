@@ -0,0 +1,80 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL15C.GL_DYNAMIC_DRAW;
+import static org.lwjgl.opengl.GL15C.glBindBuffer;
+import static org.lwjgl.opengl.GL15C.glBufferData;
+import static org.lwjgl.opengl.GL15C.glBufferSubData;
+import static org.lwjgl.opengl.GL15C.glGenBuffers;
+import static org.lwjgl.opengl.GL31C.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL31C.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31C.glUniformBlockBinding;
+import static org.lwjgl.opengl.GL30C.glBindBufferBase;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Matrix3dc;
+import org.joml.Matrix4dc;
+
+/**
+ * A uniform buffer object holding one std140 uniform block that is bound to a fixed binding point.
+ * Every program declaring the block reads the same data, hence it is uploaded only once per change.
+ */
+public class UniformBuffer {
+	protected final int m_UBO;
+	protected final int m_binding;
+	protected final ByteBuffer m_block;	// std140 staging data of one block
+
+	public UniformBuffer(int binding, int blockSize) {
+		this(binding, blockSize, glGenBuffers());
+
+		glBindBuffer(GL_UNIFORM_BUFFER, m_UBO);
+		glBufferData(GL_UNIFORM_BUFFER, blockSize, GL_DYNAMIC_DRAW);
+		glBindBufferBase(GL_UNIFORM_BUFFER, binding, m_UBO);
+	}
+
+	// for subclasses managing the storage of the given buffer object themselves
+	protected UniformBuffer(int binding, int blockSize, int ubo) {
+		m_binding = binding;
+		m_block = memAlloc(blockSize);
+		m_UBO = ubo;
+	}
+
+	// connects the named uniform block of a program to the binding point of this buffer
+	public void attach(int program, String blockName) {
+		int index = glGetUniformBlockIndex(program, blockName);
+		if (index != GL_INVALID_INDEX) {
+			glUniformBlockBinding(program, index, m_binding);
+		}
+	}
+
+	// the staging data to be filled with the put methods before calling upload
+	public ByteBuffer getBlock() {
+		return m_block;
+	}
+
+	public void upload() {
+		glBindBuffer(GL_UNIFORM_BUFFER, m_UBO);
+		glBufferSubData(GL_UNIFORM_BUFFER, 0, m_block);
+	}
+
+	// std140: a mat4 consists of four vec4 columns
+	public static void putMat4(ByteBuffer block, int offset, Matrix4dc m) {
+		m.getFloats(offset, block);
+	}
+
+	// std140: a mat3 consists of three columns, each padded to a vec4
+	public static void putMat3(ByteBuffer block, int offset, Matrix3dc m) {
+		putVec4(block, offset, (float)m.m00(), (float)m.m01(), (float)m.m02(), 0);
+		putVec4(block, offset + 16, (float)m.m10(), (float)m.m11(), (float)m.m12(), 0);
+		putVec4(block, offset + 32, (float)m.m20(), (float)m.m21(), (float)m.m22(), 0);
+	}
+
+	public static void putVec4(ByteBuffer block, int offset, float x, float y, float z, float w) {
+		block.putFloat(offset, x);
+		block.putFloat(offset + 4, y);
+		block.putFloat(offset + 8, z);
+		block.putFloat(offset + 12, w);
+	}
+}
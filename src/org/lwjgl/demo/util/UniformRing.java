@@ -0,0 +1,48 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL11C.glGetInteger;
+import static org.lwjgl.opengl.GL30C.glBindBufferRange;
+import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT;
+
+/**
+ * A uniform buffer holding many instances of one std140 block, e.g. per-object data. Each pushed block
+ * is written to the next aligned range of a stream buffer and bound with glBindBufferRange, so subsequent
+ * draws don't overwrite data that previous draws may still read.
+ */
+public class UniformRing extends UniformBuffer {
+	private final StreamBuffer m_stream;
+	private final int m_alignment;	// offset alignment of uniform buffer ranges
+	private final int m_blockSize;
+
+	// capacity: number of blocks per region of the stream buffer
+	public UniformRing(int binding, int blockSize, int capacity) {
+		this(binding, blockSize, new StreamBuffer(GL_UNIFORM_BUFFER, align(blockSize, alignment())*capacity));
+	}
+
+	private UniformRing(int binding, int blockSize, StreamBuffer stream) {
+		super(binding, blockSize, stream.getBuffer());
+		m_stream = stream;
+		m_alignment = alignment();
+		m_blockSize = blockSize;
+	}
+
+	private static int alignment() {
+		return glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+	}
+
+	private static int align(int size, int alignment) {
+		return (size + alignment - 1)/alignment*alignment;
+	}
+
+	// copies the staging block into the next range of the ring and binds that range
+	public void push() {
+		int offset = m_stream.write(m_block, m_alignment);
+		glBindBufferRange(GL_UNIFORM_BUFFER, m_binding, m_UBO, offset, m_blockSize);
+	}
+
+	@Override
+	public void upload() {
+		push();
+	}
+}
@@ -0,0 +1,178 @@
+package org.lwjgl.demo.util;
+
+import static org.lwjgl.opengl.GL11C.GL_FLOAT;
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11C.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL33C.GL_INT_2_10_10_10_REV;
+import static org.lwjgl.opengl.GL20C.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20C.glVertexAttribPointer;
+
+/**
+ * Describes the interleaved layout of one vertex: which attributes it contains, how each attribute is stored,
+ * and at which byte offset. All attributes of a vertex are packed into a single buffer with a common stride.
+ */
+public final class VertexFormat {
+	// vertex attributes known to the shaders; the locations are bound before a program is linked
+	public enum Attribute {
+		POSITION(0, "in_Position"),
+		NORMAL(1, "in_Normal"),
+		COLOR(2, "in_Color"),
+		UV(3, "in_UV"),
+		INSTANCE_COLOR(4, "in_InstanceColor"),	// per-instance attributes, see InstanceBuffer
+		INSTANCE_MODEL(5, "in_Model");			// mat4x3 occupying locations 5 to 8
+
+		public final int location;
+		public final String name;
+
+		Attribute(int location, String name) {
+			this.location = location;
+			this.name = name;
+		}
+	}
+
+	// one attribute of a vertex stored as 'size' components of the given OpenGL type
+	public static final class Element {
+		public final Attribute attribute;
+		public final int size;			// number of components
+		public final int type;			// OpenGL component type
+		public final boolean normalized;
+		public final int bytes;			// number of bytes of this element
+		public final int offset;		// byte offset within the vertex, assigned by VertexFormat
+
+		public Element(Attribute attribute, int size, int type, boolean normalized, int bytes) {
+			this(attribute, size, type, normalized, bytes, -1);
+		}
+
+		private Element(Attribute attribute, int size, int type, boolean normalized, int bytes, int offset) {
+			this.attribute = attribute;
+			this.size = size;
+			this.type = type;
+			this.normalized = normalized;
+			this.bytes = bytes;
+			this.offset = offset;
+		}
+
+		public static Element floats(Attribute attribute, int size) {
+			return new Element(attribute, size, GL_FLOAT, false, size*Float.BYTES);
+		}
+
+		// unsigned bytes mapped to [0, 1], e.g. a packed RGBA color
+		public static Element normalizedBytes(Attribute attribute, int size) {
+			return new Element(attribute, size, GL_UNSIGNED_BYTE, true, size);
+		}
+
+		// unsigned shorts mapped to [0, 1], e.g. positions quantized relative to the bounds of a mesh
+		public static Element normalizedShorts(Attribute attribute, int size) {
+			return new Element(attribute, size, GL_UNSIGNED_SHORT, true, size*Short.BYTES);
+		}
+
+		// a unit vector packed into 10 signed bits per component of one int, the 2-bit w is unused
+		public static Element packedNormal(Attribute attribute) {
+			return new Element(attribute, 4, GL_INT_2_10_10_10_REV, true, Integer.BYTES);
+		}
+
+		// true if the element is stored as floats, i.e. not compressed
+		public boolean isFloat() {
+			return type == GL_FLOAT;
+		}
+
+		private Element at(int offset) {
+			return new Element(attribute, size, type, normalized, bytes, offset);
+		}
+	}
+
+	public static final VertexFormat POSITION_NORMAL = new VertexFormat(
+		Element.floats(Attribute.POSITION, 3),
+		Element.floats(Attribute.NORMAL, 3)
+	);
+
+	public static final VertexFormat POSITION_NORMAL_COLOR = new VertexFormat(
+		Element.floats(Attribute.POSITION, 3),
+		Element.floats(Attribute.NORMAL, 3),
+		Element.floats(Attribute.COLOR, 4)
+	);
+
+	public static final VertexFormat POSITION_NORMAL_COLOR_UV = new VertexFormat(
+		Element.floats(Attribute.POSITION, 3),
+		Element.floats(Attribute.NORMAL, 3),
+		Element.floats(Attribute.COLOR, 4),
+		Element.floats(Attribute.UV, 2)
+	);
+
+	// compressed POSITION_NORMAL, see MeshBuilder.compress: 12 instead of 24 bytes per vertex
+	public static final VertexFormat POSITION_NORMAL_PACKED = POSITION_NORMAL.compressed();
+
+	// 2D vertices of OGLModel2D batches: 12 bytes per vertex
+	public static final VertexFormat POSITION2_COLOR = new VertexFormat(
+		Element.floats(Attribute.POSITION, 2),
+		Element.normalizedBytes(Attribute.COLOR, 4)
+	);
+
+	private final Element[] m_elements;
+	private final Element[] m_byAttribute = new Element[Attribute.values().length];
+	private final int m_stride;
+
+	public VertexFormat(Element... elements) {
+		m_elements = new Element[elements.length];
+
+		int offset = 0;
+		for (int i = 0; i < elements.length; i++) {
+			Element e = elements[i].at(offset);
+			if (m_byAttribute[e.attribute.ordinal()] != null)
+				throw new IllegalArgumentException("Duplicate vertex attribute " + e.attribute);
+			m_elements[i] = e;
+			m_byAttribute[e.attribute.ordinal()] = e;
+			offset += (e.bytes + 3) & ~3; // keep every element 4-byte aligned
+		}
+		m_stride = offset;
+	}
+
+	/**
+	 * Returns this format with 16-bit normalized positions and normals packed into 2_10_10_10 ints;
+	 * all other elements are kept. The positions are relative to the bounds of the mesh, see Bounds.dequantization.
+	 */
+	public VertexFormat compressed() {
+		Element[] elements = new Element[m_elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			Element e = m_elements[i];
+			if (e.attribute == Attribute.POSITION && e.size == 3) {
+				e = Element.normalizedShorts(Attribute.POSITION, 3);
+			} else if (e.attribute == Attribute.NORMAL) {
+				e = Element.packedNormal(Attribute.NORMAL);
+			}
+			elements[i] = e;
+		}
+		return new VertexFormat(elements);
+	}
+
+	// true if the positions are quantized relative to the bounds of the mesh
+	public boolean isQuantized() {
+		Element position = getElement(Attribute.POSITION);
+		return position != null && position.type == GL_UNSIGNED_SHORT;
+	}
+
+	public int getStride() {
+		return m_stride;
+	}
+
+	public Element[] getElements() {
+		return m_elements.clone();
+	}
+
+	// returns null if the attribute is not part of this format
+	public Element getElement(Attribute attribute) {
+		return m_byAttribute[attribute.ordinal()];
+	}
+
+	public boolean has(Attribute attribute) {
+		return m_byAttribute[attribute.ordinal()] != null;
+	}
+
+	// records the attribute pointers of this format for the currently bound VAO and GL_ARRAY_BUFFER
+	public void setup() {
+		for (Element e : m_elements) {
+			glEnableVertexAttribArray(e.attribute.location);
+			glVertexAttribPointer(e.attribute.location, e.size, e.type, e.normalized, m_stride, e.offset);
+		}
+	}
+}